@@ -1,4 +1,171 @@
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties;
+import com.jpozarycki.interceptor.QueryInterceptorMetrics;
+import com.jpozarycki.statistics.HibernateStatisticsService;
+import com.typesafe.config.Config;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public class Module extends AbstractModule {
+    private static final String INTERCEPTOR_CONFIG_PATH = "hibernate.query.interceptor";
+    private static final String STATISTICS_CONFIG_PATH = "hibernate.statistics";
+
+    /**
+     * Bind the interceptor properties to the hibernate.query.interceptor section of the configuration, keeping the
+     * defaults of the properties for the missing keys
+     */
+    @Provides
+    @Singleton
+    public HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties(Config config) {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        if (!config.hasPath(INTERCEPTOR_CONFIG_PATH)) {
+            return properties;
+        }
+
+        Config interceptorConfig = config.getConfig(INTERCEPTOR_CONFIG_PATH);
+        if (interceptorConfig.hasPath("error-level")) {
+            properties.setErrorLevel(interceptorConfig.getString("error-level"));
+        }
+        if (interceptorConfig.hasPath("sampling.strategy")) {
+            properties.setSamplingStrategy(interceptorConfig.getString("sampling.strategy"));
+        }
+        if (interceptorConfig.hasPath("sampling.rate")) {
+            properties.setSamplingRate(interceptorConfig.getDouble("sampling.rate"));
+        }
+        if (interceptorConfig.hasPath("sampling.min-rate")) {
+            properties.setMinSamplingRate(interceptorConfig.getDouble("sampling.min-rate"));
+        }
+        if (interceptorConfig.hasPath("aggregation.window")) {
+            properties.setAggregationWindow(interceptorConfig.getDuration("aggregation.window"));
+        }
+        if (interceptorConfig.hasPath("aggregation.max-call-sites")) {
+            properties.setMaxAggregatedCallSites(interceptorConfig.getInt("aggregation.max-call-sites"));
+        }
+        if (interceptorConfig.hasPath("repeated-statement.threshold")) {
+            properties.setRepeatedStatementThreshold(interceptorConfig.getInt("repeated-statement.threshold"));
+        }
+        if (interceptorConfig.hasPath("repeated-statement.fingerprint-cache-size")) {
+            properties.setFingerprintCacheSize(interceptorConfig.getInt("repeated-statement.fingerprint-cache-size"));
+        }
+        if (interceptorConfig.hasPath("auto-batch-initialization.enabled")) {
+            properties.setAutoBatchInitialization(interceptorConfig.getBoolean("auto-batch-initialization.enabled"));
+        }
+        if (interceptorConfig.hasPath("auto-batch-initialization.size")) {
+            properties.setAutoBatchInitializationSize(interceptorConfig.getInt("auto-batch-initialization.size"));
+        }
+        if (interceptorConfig.hasPath("sql-trace.enabled")) {
+            properties.setSqlTraceEnabled(interceptorConfig.getBoolean("sql-trace.enabled"));
+        }
+        if (interceptorConfig.hasPath("sql-trace.capacity")) {
+            properties.setSqlTraceCapacity(interceptorConfig.getInt("sql-trace.capacity"));
+        }
+        if (interceptorConfig.hasPath("sql-trace.max-statements")) {
+            properties.setSqlTraceMaxStatements(interceptorConfig.getInt("sql-trace.max-statements"));
+        }
+        if (interceptorConfig.hasPath("entity-cache.enabled")) {
+            properties.setEntityCacheEnabled(interceptorConfig.getBoolean("entity-cache.enabled"));
+        }
+        if (interceptorConfig.hasPath("entity-cache.maximum-weight")) {
+            properties.setEntityCacheMaximumWeight(interceptorConfig.getLong("entity-cache.maximum-weight"));
+        }
+        if (interceptorConfig.hasPath("entity-cache.expire-after-write")) {
+            properties.setEntityCacheExpireAfterWrite(interceptorConfig.getDuration("entity-cache.expire-after-write"));
+        }
+        if (interceptorConfig.hasPath("async-analysis.enabled")) {
+            properties.setAsyncAnalysisEnabled(interceptorConfig.getBoolean("async-analysis.enabled"));
+        }
+        if (interceptorConfig.hasPath("async-analysis.queue-capacity")) {
+            properties.setAsyncAnalysisQueueCapacity(interceptorConfig.getInt("async-analysis.queue-capacity"));
+        }
+        if (interceptorConfig.hasPath("persistence-context-guard.max-managed-entities")) {
+            properties.setMaxManagedEntities(
+                    interceptorConfig.getInt("persistence-context-guard.max-managed-entities")
+            );
+        }
+        if (interceptorConfig.hasPath("persistence-context-guard.max-flush-duration")) {
+            properties.setMaxFlushDuration(
+                    interceptorConfig.getDuration("persistence-context-guard.max-flush-duration")
+            );
+        }
+        if (interceptorConfig.hasPath("over-fetch.ratio")) {
+            properties.setOverFetchRatio(interceptorConfig.getDouble("over-fetch.ratio"));
+        }
+        if (interceptorConfig.hasPath("over-fetch.min-rows")) {
+            properties.setOverFetchMinRows(interceptorConfig.getInt("over-fetch.min-rows"));
+        }
+        return properties;
+    }
+
+    /**
+     * Interceptor of the sessions, closed with the application to stop its background threads
+     */
+    @Provides
+    @Singleton
+    public HibernateQueryInterceptor hibernateQueryInterceptor(HibernateQueryInterceptorProperties properties,
+                                                               QueryInterceptorMetrics queryInterceptorMetrics,
+                                                               ApplicationLifecycle applicationLifecycle) {
+        HibernateQueryInterceptor hibernateQueryInterceptor =
+                new HibernateQueryInterceptor(properties, queryInterceptorMetrics);
+        applicationLifecycle.addStopHook(() -> {
+            hibernateQueryInterceptor.close();
+            return CompletableFuture.completedFuture(null);
+        });
+        return hibernateQueryInterceptor;
+    }
+
+    /**
+     * Service taking the snapshots of the Hibernate statistics, configured in the hibernate.statistics section of the
+     * configuration and stopped with the application
+     */
+    @Provides
+    @Singleton
+    public HibernateStatisticsService hibernateStatisticsService(Config config,
+                                                                 ApplicationLifecycle applicationLifecycle) {
+        boolean enabled = false;
+        Duration interval = Duration.ofMinutes(1);
+        int maxHotSpots = 10;
+        if (config.hasPath(STATISTICS_CONFIG_PATH)) {
+            Config statisticsConfig = config.getConfig(STATISTICS_CONFIG_PATH);
+            if (statisticsConfig.hasPath("enabled")) {
+                enabled = statisticsConfig.getBoolean("enabled");
+            }
+            if (statisticsConfig.hasPath("interval")) {
+                interval = statisticsConfig.getDuration("interval");
+            }
+            if (statisticsConfig.hasPath("max-hot-spots")) {
+                maxHotSpots = statisticsConfig.getInt("max-hot-spots");
+            }
+        }
+
+        HibernateStatisticsService hibernateStatisticsService =
+                new HibernateStatisticsService(enabled, interval, maxHotSpots);
+        applicationLifecycle.addStopHook(() -> {
+            hibernateStatisticsService.close();
+            return CompletableFuture.completedFuture(null);
+        });
+        return hibernateStatisticsService;
+    }
+
+    /**
+     * Registry of the metrics exported by the interceptor, served in the Prometheus format on /metrics
+     */
+    @Provides
+    @Singleton
+    public PrometheusMeterRegistry prometheusMeterRegistry() {
+        return new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    }
+
+    @Provides
+    @Singleton
+    public MeterRegistry meterRegistry(PrometheusMeterRegistry prometheusMeterRegistry) {
+        return prometheusMeterRegistry;
+    }
 }
@@ -0,0 +1,21 @@
+package com.jpozarycki.action;
+
+import play.mvc.With;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maximum number of statements an action may execute, checked by {@link QueryBudgetAction}
+ */
+@With(QueryBudgetAction.class)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryBudget {
+    /**
+     * Maximum number of statements
+     */
+    int max();
+}
@@ -0,0 +1,82 @@
+package com.jpozarycki.action;
+
+import com.jpozarycki.exceptions.QueryBudgetExceededException;
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties;
+import com.jpozarycki.interceptor.QueryMetrics;
+import lombok.extern.slf4j.Slf4j;
+import play.libs.typedmap.TypedKey;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Count the statements executed by an action annotated with {@link QueryBudget}, record the count in the
+ * metrics of the interceptor and compare it with the budget once the result is ready
+ * <p>
+ * The query metrics are bound to the request thread while the action is called. The work run later on other threads
+ * is counted only when it is given the query metrics explicitly, e.g. by the asynchronous methods of the
+ * {@code SessionProvider}, which capture the query metrics of the calling thread, or by opening its sessions with the
+ * query metrics of the {@link #QUERY_METRICS} request attribute
+ * <p>
+ * An exceeded budget is logged with a response header or thrown depending on the configured error level
+ */
+@Slf4j
+public class QueryBudgetAction extends Action<QueryBudget> {
+    public static final String QUERY_BUDGET_EXCEEDED_HEADER = "X-Query-Budget-Exceeded";
+    /**
+     * Request attribute holding the query metrics of the action, to pass to the sessions opened on other threads
+     */
+    public static final TypedKey<QueryMetrics> QUERY_METRICS = TypedKey.create("queryMetrics");
+
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+    private final HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties;
+
+    @Inject
+    public QueryBudgetAction(HibernateQueryInterceptor hibernateQueryInterceptor,
+                             HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+        this.hibernateQueryInterceptorProperties = hibernateQueryInterceptorProperties;
+    }
+
+    @Override
+    public CompletionStage<Result> call(Http.Request request) {
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+        CompletionStage<Result> result;
+        try {
+            result = delegate.call(request.addAttr(QUERY_METRICS, queryMetrics));
+        } finally {
+            hibernateQueryInterceptor.stopQueryMetrics();
+        }
+        return result.thenApply(response -> checkQueryBudget(request, response, queryMetrics));
+    }
+
+    private Result checkQueryBudget(Http.Request request, Result response, QueryMetrics queryMetrics) {
+        hibernateQueryInterceptor.getQueryInterceptorMetrics().requestCompleted(queryMetrics);
+        long queryCount = queryMetrics.getStatementCount();
+        if (queryCount <= configuration.max()) {
+            return response;
+        }
+
+        String errorMessage = "Query budget exceeded on " + request.method() + " " + request.path() + ": " +
+                queryCount + " statements executed for a budget of " + configuration.max() + "\n" +
+                "    " + queryMetrics + "\n";
+        switch (hibernateQueryInterceptorProperties.getErrorLevel()) {
+            case INFO:
+                log.info(errorMessage);
+                break;
+            case WARN:
+                log.warn(errorMessage);
+                break;
+            case ERROR:
+                log.error(errorMessage);
+                break;
+            default:
+                throw new QueryBudgetExceededException(errorMessage);
+        }
+        return response.withHeader(QUERY_BUDGET_EXCEEDED_HEADER, queryCount + "/" + configuration.max());
+    }
+}
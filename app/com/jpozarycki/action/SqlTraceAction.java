@@ -0,0 +1,39 @@
+package com.jpozarycki.action;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.SqlTrace;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Trace the statements executed by an action and keep the trace in the SQL trace recorder of the
+ * {@link HibernateQueryInterceptor} once the result is ready
+ */
+public class SqlTraceAction extends Action.Simple {
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    public SqlTraceAction(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+    }
+
+    @Override
+    public CompletionStage<Result> call(Http.Request request) {
+        SqlTrace sqlTrace = hibernateQueryInterceptor.startSqlTrace(request.method(), request.path());
+        if (sqlTrace == null) {
+            return delegate.call(request);
+        }
+
+        CompletionStage<Result> result;
+        try {
+            result = delegate.call(request);
+        } finally {
+            hibernateQueryInterceptor.stopSqlTrace();
+        }
+        return result.whenComplete(
+                (response, throwable) -> hibernateQueryInterceptor.getSqlTraceRecorder().completed(sqlTrace)
+        );
+    }
+}
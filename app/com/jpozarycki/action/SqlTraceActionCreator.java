@@ -0,0 +1,39 @@
+package com.jpozarycki.action;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import play.http.ActionCreator;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Wrap every action in a {@link SqlTraceAction} when the SQL trace is enabled, registered with
+ * play.http.actionCreator
+ * <p>
+ * When the SQL trace is disabled the actions are left as they are
+ */
+public class SqlTraceActionCreator implements ActionCreator {
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Inject
+    public SqlTraceActionCreator(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+    }
+
+    @Override
+    public Action createAction(Http.Request request, Method actionMethod) {
+        if (hibernateQueryInterceptor.getSqlTraceRecorder().isEnabled()) {
+            return new SqlTraceAction(hibernateQueryInterceptor);
+        }
+        return new Action.Simple() {
+            @Override
+            public CompletionStage<Result> call(Http.Request request) {
+                return delegate.call(request);
+            }
+        };
+    }
+}
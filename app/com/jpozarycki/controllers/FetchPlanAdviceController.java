@@ -0,0 +1,25 @@
+package com.jpozarycki.controllers;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+
+/**
+ * Serve the fetch plan changes advised for the N+1 queries detected by the {@link HibernateQueryInterceptor}
+ */
+public class FetchPlanAdviceController extends Controller {
+
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Inject
+    public FetchPlanAdviceController(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+    }
+
+    public Result advice() {
+        return ok(Json.toJson(hibernateQueryInterceptor.getFetchPlanAdvisor().advice()));
+    }
+}
@@ -0,0 +1,55 @@
+package com.jpozarycki.controllers;
+
+import com.jpozarycki.statistics.HibernateStatisticsService;
+import com.jpozarycki.statistics.HibernateStatisticsSnapshot;
+import play.Environment;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.util.Collections;
+
+/**
+ * Serve the latest snapshot of the Hibernate statistics taken by the {@link HibernateStatisticsService}, and toggle
+ * the collection of the statistics at runtime
+ * <p>
+ * The toggle changes the overhead of the production session factory and is not authenticated, it is therefore
+ * refused in production mode, where the statistics are enabled in the configuration instead. It stays protected by the
+ * CSRF filter
+ */
+public class HibernateStatisticsController extends Controller {
+
+    private final HibernateStatisticsService hibernateStatisticsService;
+    private final Environment environment;
+
+    @Inject
+    public HibernateStatisticsController(HibernateStatisticsService hibernateStatisticsService,
+                                         Environment environment) {
+        this.hibernateStatisticsService = hibernateStatisticsService;
+        this.environment = environment;
+    }
+
+    public Result statistics() {
+        if (!hibernateStatisticsService.isEnabled()) {
+            return notFound(
+                    "Hibernate statistics are disabled, enable them with POST /hibernate/statistics?enabled=true"
+            );
+        }
+        HibernateStatisticsSnapshot snapshot = hibernateStatisticsService.getLatestSnapshot();
+        if (snapshot == null) {
+            return notFound("No snapshot yet, a snapshot is taken every " + hibernateStatisticsService.getInterval());
+        }
+        return ok(Json.toJson(snapshot));
+    }
+
+    public Result setEnabled(boolean enabled) {
+        if (environment.isProd()) {
+            return forbidden(
+                    "Hibernate statistics are not toggled at runtime in production, set hibernate.statistics.enabled"
+            );
+        }
+        hibernateStatisticsService.setEnabled(enabled);
+        return ok(Json.toJson(Collections.singletonMap("enabled", enabled)));
+    }
+}
@@ -0,0 +1,26 @@
+package com.jpozarycki.controllers;
+
+import com.jpozarycki.interceptor.QueryInterceptorMetrics;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+
+/**
+ * Serve the metrics of the {@link QueryInterceptorMetrics} in the Prometheus text format
+ */
+public class MetricsController extends Controller {
+
+    private final PrometheusMeterRegistry prometheusMeterRegistry;
+
+    @Inject
+    public MetricsController(PrometheusMeterRegistry prometheusMeterRegistry) {
+        this.prometheusMeterRegistry = prometheusMeterRegistry;
+    }
+
+    public Result metrics() {
+        return ok(prometheusMeterRegistry.scrape()).as(TextFormat.CONTENT_TYPE_004);
+    }
+}
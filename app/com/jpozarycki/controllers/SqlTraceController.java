@@ -0,0 +1,31 @@
+package com.jpozarycki.controllers;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.SqlTraceRecorder;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+
+/**
+ * Serve the slowest of the last requests traced by the SQL trace recorder of the {@link HibernateQueryInterceptor},
+ * with the statements of each request
+ */
+public class SqlTraceController extends Controller {
+
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Inject
+    public SqlTraceController(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+    }
+
+    public Result traces(int limit) {
+        SqlTraceRecorder sqlTraceRecorder = hibernateQueryInterceptor.getSqlTraceRecorder();
+        if (!sqlTraceRecorder.isEnabled()) {
+            return notFound("SQL trace is disabled, enable it with hibernate.query.interceptor.sql-trace.enabled");
+        }
+        return ok(Json.toJson(sqlTraceRecorder.slowest(limit)));
+    }
+}
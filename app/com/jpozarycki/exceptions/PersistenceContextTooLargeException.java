@@ -0,0 +1,7 @@
+package com.jpozarycki.exceptions;
+
+public class PersistenceContextTooLargeException extends NPlusOneQueriesException {
+    public PersistenceContextTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.jpozarycki.exceptions;
+
+public class QueryBudgetExceededException extends NPlusOneQueriesException {
+    public QueryBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,43 @@
+package com.jpozarycki.interceptor;
+
+import org.hibernate.engine.spi.SessionImplementor;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Session bound to the interceptor for the current unit of work, needed to initialize proxies in batch
+ */
+class BoundSession {
+    private final Map<String, Set<Serializable>> uninitializedProxyIds = new HashMap<>();
+    private SessionImplementor session;
+    private boolean batchInitializing;
+
+    SessionImplementor getSession() {
+        return session;
+    }
+
+    void setSession(SessionImplementor session) {
+        this.session = session;
+        uninitializedProxyIds.clear();
+    }
+
+    /**
+     * Get the ids of the uninitialized proxies of an entity found in the persistence context by the last scan, not
+     * initialized in batch yet
+     */
+    Set<Serializable> getUninitializedProxyIds(String entityName) {
+        return uninitializedProxyIds.computeIfAbsent(entityName, key -> new LinkedHashSet<>());
+    }
+
+    boolean isBatchInitializing() {
+        return batchInitializing;
+    }
+
+    void setBatchInitializing(boolean batchInitializing) {
+        this.batchInitializing = batchInitializing;
+    }
+}
@@ -0,0 +1,180 @@
+package com.jpozarycki.interceptor;
+
+import java.util.Optional;
+
+/**
+ * Call stack of a getEntity call, shared by the N+1 queries detections of this call
+ * <p>
+ * The stack is walked lazily, at most once, with a {@link StackWalker} so that no {@link StackTraceElement} is
+ * materialized except for the origin frames reported in the error messages
+ * <p>
+ * The stack of a getEntity call analyzed by the {@link NPlusOneQueriesAnalyzer} is captured on the calling thread
+ * instead, and its frames materialized by the analyzer
+ * <p>
+ * The frames kept are therefore either {@link StackWalker.StackFrame} or {@link StackTraceElement}
+ */
+class CallStack {
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(StackWalker.Option.SHOW_REFLECT_FRAMES);
+    private static final String HIBERNATE_PROXY_PREFIX = "org.hibernate.proxy";
+    private static final String PROXY_METHOD_PREFIX = "com.sun.proxy";
+    private static final String[] FRAMEWORK_PREFIXES = {
+            "java.", "javax.", "jdk.", "sun.", "com.sun.", "scala.", "akka.", "play.", "org.hibernate.", "org.h2.",
+            "com.zaxxer.", "net.bytebuddy."
+    };
+    private static final String[] INTERCEPTOR_CLASSES = {
+            HibernateQueryInterceptor.class.getName(), SessionQueryInterceptor.class.getName(),
+            PersistenceContextGuard.class.getName(), CallStack.class.getName(), FetchedStatement.class.getName(),
+            RowCountingConnectionProvider.class.getName()
+    };
+
+    private final String entityName;
+    private final StackTraceElement[] capturedFrames;
+    private boolean walked;
+
+    private boolean previousFrameIsHibernateProxy;
+    private boolean nextFrameIsEagerFetchingOrigin;
+    private Object eagerFetchingOriginFrame;
+
+    private boolean previousFrameIsProxyMethod;
+    private Object proxyMethodFrame;
+    private Object proxyMethodCallerFrame;
+
+    /**
+     * @param entityName Name of the entity to get, null to only look for the Proxy method
+     */
+    CallStack(String entityName) {
+        this(entityName, null);
+    }
+
+    /**
+     * @param entityName     Name of the entity to get, null to only look for the Proxy method
+     * @param capturedFrames Frames captured on the calling thread from the newest to the oldest, null to walk the
+     *                       stack of the current thread
+     */
+    CallStack(String entityName, StackTraceElement[] capturedFrames) {
+        this.entityName = entityName;
+        this.capturedFrames = capturedFrames;
+    }
+
+    /**
+     * Get the frame calling the getter of the entity, found after the newest occurrence of Hibernate proxy followed
+     * by entity class in the stack
+     *
+     * @return Optional of the origin frame if found
+     */
+    Optional<StackTraceElement> getEagerFetchingOrigin() {
+        walk();
+        return Optional.ofNullable(eagerFetchingOriginFrame).map(CallStack::toStackTraceElement);
+    }
+
+    /**
+     * Get the Proxy method name that was called first to know which query triggered the interceptor
+     *
+     * @return Optional of method name if found
+     */
+    Optional<String> getProxyMethodName() {
+        walk();
+        if (proxyMethodFrame == null) {
+            return Optional.empty();
+        }
+        if (proxyMethodFrame instanceof StackTraceElement) {
+            StackTraceElement frame = (StackTraceElement) proxyMethodFrame;
+            return Optional.of(frame.getClassName() + frame.getMethodName());
+        }
+        StackWalker.StackFrame frame = (StackWalker.StackFrame) proxyMethodFrame;
+        return Optional.of(frame.getClassName() + frame.getMethodName());
+    }
+
+    /**
+     * Get the frame calling the Proxy method that was called first, in the client package
+     *
+     * @return Optional of the origin frame if found
+     */
+    Optional<StackTraceElement> getProxyMethodOrigin() {
+        walk();
+        return Optional.ofNullable(proxyMethodCallerFrame).map(CallStack::toStackTraceElement);
+    }
+
+    /**
+     * Get the newest frame of the application code, i.e. of neither the JDK, the frameworks nor the interceptors
+     *
+     * @return Optional of the application frame if found
+     */
+    static Optional<StackTraceElement> getApplicationFrame() {
+        return STACK_WALKER.walk(frames -> frames
+                .filter(frame -> !isFrameworkClass(frame.getClassName()))
+                .findFirst()
+                .map(StackWalker.StackFrame::toStackTraceElement));
+    }
+
+    private static boolean isFrameworkClass(String className) {
+        for (String frameworkPrefix : FRAMEWORK_PREFIXES) {
+            if (className.startsWith(frameworkPrefix)) {
+                return true;
+            }
+        }
+        for (String interceptorClass : INTERCEPTOR_CLASSES) {
+            // The interceptor class itself or one of its nested classes and lambdas
+            if (
+                    className.startsWith(interceptorClass)
+                            && (className.length() == interceptorClass.length()
+                            || className.charAt(interceptorClass.length()) == '$')
+            ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static StackTraceElement toStackTraceElement(Object frame) {
+        if (frame instanceof StackTraceElement) {
+            return (StackTraceElement) frame;
+        }
+        return ((StackWalker.StackFrame) frame).toStackTraceElement();
+    }
+
+    private void walk() {
+        if (walked) {
+            return;
+        }
+        walked = true;
+        if (capturedFrames == null) {
+            STACK_WALKER.forEach(frame -> inspect(frame.getClassName(), frame));
+        } else {
+            for (StackTraceElement frame : capturedFrames) {
+                inspect(frame.getClassName(), frame);
+            }
+        }
+    }
+
+    /**
+     * Inspect the frames from the newest to the oldest, keeping the newest Hibernate proxy and entity pattern and the
+     * oldest Proxy method
+     *
+     * @param className Class name of the frame
+     * @param frame     Frame to inspect
+     */
+    private void inspect(String className, Object frame) {
+        if (eagerFetchingOriginFrame == null) {
+            if (nextFrameIsEagerFetchingOrigin) {
+                eagerFetchingOriginFrame = frame;
+            } else {
+                nextFrameIsEagerFetchingOrigin = previousFrameIsHibernateProxy
+                        && entityName != null
+                        && className.startsWith(entityName);
+                previousFrameIsHibernateProxy = className.startsWith(HIBERNATE_PROXY_PREFIX);
+            }
+        }
+
+        if (className.startsWith(PROXY_METHOD_PREFIX)) {
+            proxyMethodFrame = frame;
+            proxyMethodCallerFrame = null;
+            previousFrameIsProxyMethod = true;
+        } else {
+            if (previousFrameIsProxyMethod) {
+                proxyMethodCallerFrame = frame;
+            }
+            previousFrameIsProxyMethod = false;
+        }
+    }
+}
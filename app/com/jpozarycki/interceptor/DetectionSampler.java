@@ -0,0 +1,66 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties.SamplingStrategy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decide in which transactions the N+1 queries are detected, according to the configured sampling strategy
+ */
+class DetectionSampler {
+    private final HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties;
+    private final ConcurrentMap<String, AtomicInteger> entityReportCounts = new ConcurrentHashMap<>();
+
+    DetectionSampler(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties) {
+        this.hibernateQueryInterceptorProperties = hibernateQueryInterceptorProperties;
+    }
+
+    boolean isSampling() {
+        return hibernateQueryInterceptorProperties.getSamplingStrategy() != SamplingStrategy.NONE;
+    }
+
+    /**
+     * Draw whether N+1 queries are detected in a new transaction
+     */
+    boolean sampleTransaction() {
+        return !isSampling()
+                || ThreadLocalRandom.current().nextDouble() < hibernateQueryInterceptorProperties.getSamplingRate();
+    }
+
+    /**
+     * Draw whether N+1 queries are detected on an entity in a sampled transaction
+     * <p>
+     * With adaptive sampling, the detection rate of an entity is halved each time N+1 queries are reported on it,
+     * down to the minimal sampling rate
+     *
+     * @param entityName Name of the entity
+     */
+    boolean sampleEntity(String entityName) {
+        if (hibernateQueryInterceptorProperties.getSamplingStrategy() != SamplingStrategy.ADAPTIVE) {
+            return true;
+        }
+        AtomicInteger reportCount = entityReportCounts.get(entityName);
+        if (reportCount == null) {
+            return true;
+        }
+        double entitySamplingRate = Math.max(
+                hibernateQueryInterceptorProperties.getMinSamplingRate(),
+                Math.scalb(1.0, -reportCount.get())
+        );
+        return ThreadLocalRandom.current().nextDouble() < entitySamplingRate;
+    }
+
+    /**
+     * Record that N+1 queries were reported on an entity to turn its detection down with adaptive sampling
+     *
+     * @param entityName Name of the entity
+     */
+    void reported(String entityName) {
+        if (hibernateQueryInterceptorProperties.getSamplingStrategy() == SamplingStrategy.ADAPTIVE) {
+            entityReportCounts.computeIfAbsent(entityName, name -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.jpozarycki.interceptor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-through cache of the entities annotated with {@link EntityCacheable}, shared by the sessions of the
+ * {@link HibernateQueryInterceptor}
+ * <p>
+ * The loaded state of an entity is cached when it is loaded and a new instance is built from a copy of the state for
+ * each session getting it, so that the sessions never share an instance. The cache is bounded by the number of property
+ * values cached, evicting with W-TinyLFU, and the entries expire after a time to live. The entries are invalidated
+ * when their entity is flushed dirty or deleted, and again once the transaction is completed in case a concurrent
+ * session loaded the entity in between.
+ */
+@Slf4j
+class EntityCache {
+    private final Cache<Key, Object[]> cache;
+    private final Map<String, Boolean> cacheableEntities = new ConcurrentHashMap<>();
+
+    EntityCache(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties,
+                QueryInterceptorMetrics queryInterceptorMetrics) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(hibernateQueryInterceptorProperties.getEntityCacheMaximumWeight())
+                .weigher((Key key, Object[] values) -> values.length + 1)
+                .expireAfterWrite(hibernateQueryInterceptorProperties.getEntityCacheExpireAfterWrite())
+                .recordStats()
+                .build();
+        queryInterceptorMetrics.monitor(cache, "hibernate.entity-cache");
+    }
+
+    /**
+     * Get a new instance of a cached entity
+     *
+     * @param session    Session getting the entity, null if no session is bound
+     * @param entityName Name of the entity
+     * @param id         Id of the entity
+     * @return New instance of the entity built from its cached state, null if it is not cached
+     */
+    Object get(SessionImplementor session, String entityName, Serializable id) {
+        if (session == null) {
+            return null;
+        }
+        EntityPersister entityPersister = entityPersister(session.getFactory(), entityName);
+        if (entityPersister == null) {
+            return null;
+        }
+        Object[] values = cache.getIfPresent(new Key(entityName, id));
+        if (values == null) {
+            return null;
+        }
+
+        Object entity = entityPersister.instantiate(id, session);
+        entityPersister.setPropertyValues(entity, deepCopy(entityPersister, values));
+        return entity;
+    }
+
+    /**
+     * Cache the state of an entity loaded from the database or the second-level cache
+     *
+     * @param session Session loading the entity, null if no session is bound
+     * @param entity  Entity loaded
+     * @param id      Id of the entity
+     * @param state   Loaded state of the entity
+     */
+    void loaded(SessionImplementor session, Object entity, Serializable id, Object[] state) {
+        if (session == null) {
+            return;
+        }
+        String entityName = Hibernate.getClass(entity).getName();
+        EntityPersister entityPersister = entityPersister(session.getFactory(), entityName);
+        if (entityPersister != null) {
+            cache.put(new Key(entityName, id), deepCopy(entityPersister, state));
+        }
+    }
+
+    /**
+     * Invalidate the cached state of an entity
+     *
+     * @param entity Entity flushed dirty or deleted
+     * @param id     Id of the entity
+     * @return Key of the entity invalidated, to be invalidated again once the transaction is completed, null if the
+     * entity is not cacheable
+     */
+    Key invalidate(Object entity, Serializable id) {
+        Class<?> entityClass = Hibernate.getClass(entity);
+        if (!entityClass.isAnnotationPresent(EntityCacheable.class)) {
+            return null;
+        }
+        Key key = new Key(entityClass.getName(), id);
+        cache.invalidate(key);
+        return key;
+    }
+
+    void invalidate(Key key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Get the persister of the entity if it is cacheable
+     *
+     * @return Persister of the entity, null if the entity is not cacheable
+     */
+    private EntityPersister entityPersister(SessionFactoryImplementor sessionFactory, String entityName) {
+        EntityPersister entityPersister = sessionFactory.getMetamodel().entityPersister(entityName);
+        if (cacheableEntities.computeIfAbsent(entityName, name -> isCacheable(entityPersister))) {
+            return entityPersister;
+        }
+        return null;
+    }
+
+    private static boolean isCacheable(EntityPersister entityPersister) {
+        Class<?> mappedClass = entityPersister.getMappedClass();
+        if (mappedClass == null || !mappedClass.isAnnotationPresent(EntityCacheable.class)) {
+            return false;
+        }
+        for (Type propertyType : entityPersister.getPropertyTypes()) {
+            if (propertyType.isAssociationType()) {
+                log.warn("Entity " + entityPersister.getEntityName() + " is not cached by the entity cache as it " +
+                        "has associations");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object[] deepCopy(EntityPersister entityPersister, Object[] values) {
+        Type[] propertyTypes = entityPersister.getPropertyTypes();
+        Object[] copy = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = propertyTypes[i].deepCopy(values[i], entityPersister.getFactory());
+        }
+        return copy;
+    }
+
+    /**
+     * Key of a cached entity
+     */
+    @Value
+    static class Key {
+        String entityName;
+        Serializable id;
+    }
+}
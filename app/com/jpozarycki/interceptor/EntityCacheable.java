@@ -0,0 +1,17 @@
+package com.jpozarycki.interceptor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark an immutable or reference data entity to be cached by the entity cache of the {@link HibernateQueryInterceptor}
+ * and returned from getEntity without querying the database
+ * <p>
+ * Only the entities without association are cached, their associations being bound to the session loading them
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EntityCacheable {
+}
@@ -0,0 +1,32 @@
+package com.jpozarycki.interceptor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of the entity names seen by the interceptor, giving each entity name a small and stable integer
+ * <p>
+ * Entity names are a bounded set of class names so the index is never cleared
+ */
+final class EntityNameIndex {
+    private static final ConcurrentMap<String, Integer> INDEXES = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    private EntityNameIndex() {
+    }
+
+    /**
+     * Get the index of the entity name, assigning a new one the first time the entity name is seen
+     *
+     * @param entityName Name of the entity
+     * @return Index of the entity name
+     */
+    static int indexOf(String entityName) {
+        Integer index = INDEXES.get(entityName);
+        if (index == null) {
+            index = INDEXES.computeIfAbsent(entityName, name -> NEXT_INDEX.getAndIncrement());
+        }
+        return index;
+    }
+}
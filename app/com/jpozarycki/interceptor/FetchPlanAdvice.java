@@ -0,0 +1,41 @@
+package com.jpozarycki.interceptor;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Fetch plan change advised for the N+1 queries detected on an entity or a statement
+ */
+@Value
+public class FetchPlanAdvice {
+    /**
+     * Name of the entity, null for the N+1 queries detected on a statement
+     */
+    String entityName;
+    /**
+     * Fingerprint of the statement, null for the N+1 queries detected on an entity
+     */
+    String statement;
+    String hint;
+    /**
+     * Frames of the client code at the origin of the N+1 queries
+     */
+    List<String> origins;
+    /**
+     * Number of N+1 queries detected
+     */
+    long detectedQueries;
+    /**
+     * Number of transactions in which N+1 queries were detected
+     */
+    long transactions;
+    long maxDetectedQueriesPerTransaction;
+    /**
+     * Batch size to configure with @BatchSize on the entity, null when batch fetching does not apply
+     */
+    Integer recommendedBatchSize;
+    long queriesSavedWithBatchSize;
+    long queriesSavedWithJoinFetch;
+    String recommendation;
+}
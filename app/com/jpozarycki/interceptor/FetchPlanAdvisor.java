@@ -0,0 +1,167 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.NPlusOneQueriesDetection.Hint;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Record the N+1 queries detected per entity and hint, or per statement, with the number of queries they cost in
+ * each transaction, to advise @BatchSize values or JOIN FETCH changes ranked by the number of queries they would save
+ * <p>
+ * The over-fetching statements are advised to be split as well, ranked last as splitting them saves no query
+ * <p>
+ * The number of entities and statements tracked is bounded
+ */
+public class FetchPlanAdvisor {
+    private static final int MAX_TRACKED_DETECTIONS = 1000;
+    private static final int MAX_ORIGINS = 10;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final ConcurrentMap<NPlusOneQueriesDetection, Statistics> statisticsByDetection = new ConcurrentHashMap<>();
+
+    /**
+     * Record the origin of N+1 queries detected
+     *
+     * @param detection N+1 queries detected
+     */
+    void detected(NPlusOneQueriesDetection detection) {
+        Statistics statistics = getStatistics(withoutOrigin(detection));
+        if (statistics != null && detection.getOrigin() != null && statistics.origins.size() < MAX_ORIGINS) {
+            statistics.origins.add(detection.getOrigin().toString());
+        }
+    }
+
+    /**
+     * Record the number of N+1 queries detected in a completed transaction and reset the transaction detections
+     *
+     * @param transactionDetections N+1 queries detected in the transaction
+     */
+    void transactionCompleted(TransactionDetections transactionDetections) {
+        for (Map.Entry<NPlusOneQueriesDetection, int[]> entry : transactionDetections.counts.entrySet()) {
+            Statistics statistics = getStatistics(entry.getKey());
+            if (statistics != null) {
+                int count = entry.getValue()[0];
+                statistics.nPlusOneQueries.add(count);
+                statistics.transactions.increment();
+                statistics.maxPerTransaction.accumulateAndGet(count, Math::max);
+            }
+        }
+        transactionDetections.counts.clear();
+    }
+
+    /**
+     * Get the fetch plan changes advised, the ones saving the most queries first
+     */
+    public List<FetchPlanAdvice> advice() {
+        return statisticsByDetection.entrySet().stream()
+                .map(entry -> advice(entry.getKey(), entry.getValue()))
+                .filter(advice -> advice.getTransactions() > 0)
+                .sorted(Comparator.comparingLong(
+                        (FetchPlanAdvice advice) -> Math.max(
+                                advice.getQueriesSavedWithBatchSize(),
+                                advice.getQueriesSavedWithJoinFetch()
+                        )
+                ).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Forget the N+1 queries recorded
+     */
+    public void reset() {
+        statisticsByDetection.clear();
+    }
+
+    private static FetchPlanAdvice advice(NPlusOneQueriesDetection detection, Statistics statistics) {
+        long nPlusOneQueries = statistics.nPlusOneQueries.sum();
+        long transactions = statistics.transactions.sum();
+        String entityName = detection.getEntityName();
+
+        // Estimate the queries saved by batch fetching from the average N+1 queries per transaction,
+        // N queries becoming ceil(N / batch size) queries
+        Integer batchSize = null;
+        long queriesSavedWithBatchSize = 0;
+        boolean nPlusOneQueriesOnEntity = detection.getHint() == Hint.MISSING_EAGER_FETCHING
+                || detection.getHint() == Hint.MISSING_LAZY_FETCHING;
+        if (nPlusOneQueriesOnEntity && transactions > 0) {
+            long averagePerTransaction = Math.max(1, Math.round((double) nPlusOneQueries / transactions));
+            batchSize = (int) Math.min(MAX_BATCH_SIZE, Long.highestOneBit(averagePerTransaction * 2 - 1));
+            long queriesPerTransactionWithBatchSize = (averagePerTransaction + batchSize - 1) / batchSize;
+            queriesSavedWithBatchSize = Math.max(
+                    0,
+                    nPlusOneQueries - transactions * queriesPerTransactionWithBatchSize
+            );
+        }
+
+        String recommendation;
+        switch (detection.getHint()) {
+            case MISSING_EAGER_FETCHING:
+                recommendation = "Add a JOIN FETCH or an entity graph on the association to " + entityName +
+                        " in the query at the origin, or annotate " + entityName + " with @BatchSize(size = " +
+                        batchSize + ")";
+                break;
+            case MISSING_LAZY_FETCHING:
+                recommendation = "Make the associations to " + entityName + " lazy with FetchType.LAZY, or " +
+                        "annotate " + entityName + " with @BatchSize(size = " + batchSize + ")";
+                break;
+            case CARTESIAN_PRODUCT:
+                recommendation = "Split the query fetching several collections of " + entityName + " with a join " +
+                        "in one query per collection, or fetch the collections with @BatchSize or " +
+                        "@Fetch(FetchMode.SUBSELECT)";
+                break;
+            default:
+                recommendation = "Fetch the rows of the statement in a single query with a JOIN FETCH or an " +
+                        "IN clause";
+        }
+
+        return new FetchPlanAdvice(
+                entityName,
+                detection.getStatement(),
+                detection.getHint().name(),
+                new ArrayList<>(statistics.origins),
+                nPlusOneQueries,
+                transactions,
+                statistics.maxPerTransaction.get(),
+                batchSize,
+                queriesSavedWithBatchSize,
+                detection.getHint() == Hint.CARTESIAN_PRODUCT ? 0 : nPlusOneQueries,
+                recommendation
+        );
+    }
+
+    private Statistics getStatistics(NPlusOneQueriesDetection detection) {
+        Statistics statistics = statisticsByDetection.get(detection);
+        if (statistics == null && statisticsByDetection.size() < MAX_TRACKED_DETECTIONS) {
+            statistics = statisticsByDetection.computeIfAbsent(detection, key -> new Statistics());
+        }
+        return statistics;
+    }
+
+    private static NPlusOneQueriesDetection withoutOrigin(NPlusOneQueriesDetection detection) {
+        return new NPlusOneQueriesDetection(detection.getEntityName(), detection.getStatement(), null,
+                detection.getHint());
+    }
+
+    private static class Statistics {
+        private final LongAdder nPlusOneQueries = new LongAdder();
+        private final LongAdder transactions = new LongAdder();
+        private final AtomicLong maxPerTransaction = new AtomicLong();
+        private final Set<String> origins = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Number of N+1 queries detected per entity and hint, or per statement, in the current transaction
+     */
+    static class TransactionDetections {
+        private final Map<NPlusOneQueriesDetection, int[]> counts = new HashMap<>();
+
+        void detected(NPlusOneQueriesDetection detection) {
+            counts.computeIfAbsent(withoutOrigin(detection), key -> new int[1])[0]++;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.jpozarycki.interceptor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Rows read and entities hydrated by a statement of a unit of work, compared when the statement is closed by the
+ * over-fetch detection of the {@link HibernateQueryInterceptor}
+ * <p>
+ * The statement is handed over by the interceptor to the {@link RowCountingConnectionProvider} through the thread
+ * preparing it, the provider counting its rows and the changes of their first column, the identifier of the root
+ * entity of a query generated by Hibernate, whose rows are grouped by root entity. The changes count the root entities
+ * the session already managed and did not hydrate again, without keeping their identifiers. It is then the statement
+ * hydrating the entities of its unit of work until it is closed, the statements prepared while hydrating, e.g. by the
+ * eager fetching of an association, being nested in it
+ * <p>
+ * A statement is used by a single thread at a time, the counts are therefore not synchronized
+ */
+final class FetchedStatement {
+    private static final ThreadLocal<FetchedStatement> PREPARED_STATEMENT = new ThreadLocal<>();
+
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+    private final UnitOfWorkState state;
+    private final String sql;
+    private final Map<String, int[]> hydratedEntities = new HashMap<>(4);
+    private FetchedStatement enclosingStatement;
+    private String rootEntityName;
+    private long rows;
+    private int rootEntities;
+    private Object rootId;
+    private boolean closed;
+
+    FetchedStatement(HibernateQueryInterceptor hibernateQueryInterceptor, UnitOfWorkState state, String sql) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+        this.state = state;
+        this.sql = sql;
+    }
+
+    /**
+     * Hand the statement over to the connection of the considered thread about to prepare it
+     */
+    void prepared() {
+        PREPARED_STATEMENT.set(this);
+    }
+
+    /**
+     * Take the statement handed over for a SQL query prepared by a connection, which becomes the statement hydrating
+     * the entities of its unit of work
+     *
+     * @param sql Query prepared
+     * @return Statement handed over, null if none was handed over for the query
+     */
+    static FetchedStatement handOver(String sql) {
+        FetchedStatement fetchedStatement = PREPARED_STATEMENT.get();
+        if (fetchedStatement == null) {
+            return null;
+        }
+        PREPARED_STATEMENT.remove();
+        if (!fetchedStatement.sql.equals(sql)) {
+            return null;
+        }
+        fetchedStatement.enclosingStatement = fetchedStatement.state.getFetchedStatement();
+        fetchedStatement.state.setFetchedStatement(fetchedStatement);
+        return fetchedStatement;
+    }
+
+    /**
+     * Forget the statement handed over to the considered thread and not prepared
+     */
+    static void clearPrepared() {
+        PREPARED_STATEMENT.remove();
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    /**
+     * Get the name of the first entity hydrated, the root entity of the query
+     */
+    String getRootEntityName() {
+        return rootEntityName;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the number of changes of the first column of the rows, the root entities read, hydrated or not
+     */
+    int getRootEntities() {
+        return rootEntities;
+    }
+
+    /**
+     * Get the names of the entities hydrated
+     */
+    Set<String> getHydratedEntityNames() {
+        return hydratedEntities.keySet();
+    }
+
+    /**
+     * Get the number of entities hydrated for an entity
+     */
+    int getHydratedEntities(String entityName) {
+        int[] count = hydratedEntities.get(entityName);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Get the highest number of entities hydrated for a single entity, the number of rows a query needs at least
+     */
+    int getMaxHydratedEntities() {
+        int maxHydratedEntities = 0;
+        for (int[] count : hydratedEntities.values()) {
+            maxHydratedEntities = Math.max(maxHydratedEntities, count[0]);
+        }
+        return maxHydratedEntities;
+    }
+
+    /**
+     * @param rootId Value of the first column of the row read
+     */
+    void rowRead(Object rootId) {
+        rows++;
+        if (rootId != null && !Objects.equals(rootId, this.rootId)) {
+            this.rootId = rootId;
+            rootEntities++;
+        }
+    }
+
+    void entityHydrated(String entityName) {
+        if (rootEntityName == null) {
+            rootEntityName = entityName;
+        }
+        hydratedEntities.computeIfAbsent(entityName, key -> new int[1])[0]++;
+    }
+
+    /**
+     * Restore the enclosing statement as the statement hydrating the entities and let the interceptor compare the
+     * rows with the entities, a statement being closed at most once
+     */
+    void closed() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (state.getFetchedStatement() == this) {
+            FetchedStatement enclosing = enclosingStatement;
+            while (enclosing != null && enclosing.closed) {
+                enclosing = enclosing.enclosingStatement;
+            }
+            state.setFetchedStatement(enclosing);
+        }
+        hibernateQueryInterceptor.statementClosed(state, this);
+    }
+}
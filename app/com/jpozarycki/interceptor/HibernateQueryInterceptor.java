@@ -1,70 +1,564 @@
 package com.jpozarycki.interceptor;
 
 import com.jpozarycki.exceptions.NPlusOneQueriesException;
-import lombok.RequiredArgsConstructor;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties.ErrorLevel;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.EmptyInterceptor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
+/**
+ * Detect the N+1 queries and record the query metrics of the sessions
+ * <p>
+ * Registered itself as the interceptor of the sessions, the state of the detection is bound to the thread and reset
+ * after each transaction. The sessions opened with {@link #openSession(SessionFactory)}, or with an interceptor from
+ * {@link #newSessionInterceptor()}, keep their state in their own {@link SessionQueryInterceptor} instead, which
+ * follows the session across threads and is released with it
+ * <p>
+ * The detections, the time spent in the callbacks and the time the sessions opened stay open are exported to the
+ * {@link QueryInterceptorMetrics}
+ * <p>
+ * With the asynchronous analysis, the detections on entities are run by a {@link NPlusOneQueriesAnalyzer}, the
+ * getEntity calls only tracking the loaded entities and capturing their call stack. Its thread is stopped when the
+ * interceptor is closed
+ * <p>
+ * With the persistence context guard, the sessions managing too many entities and the slow flushes are reported
+ * following the error level
+ * <p>
+ * With the over-fetch detection, the statements reading far more rows than the entities they hydrate are reported,
+ * their rows being counted by the {@link RowCountingConnectionProvider}
+ */
 @Slf4j
 @Singleton
-@RequiredArgsConstructor
-public class HibernateQueryInterceptor extends EmptyInterceptor {
-    private final transient ThreadLocal<Long> threadQueryCount = new ThreadLocal<>();
-    private final transient ThreadLocal<Set<String>> threadPreviouslyLoadedEntities =
-            ThreadLocal.withInitial(new EmptySetSupplier());
-    private final transient ThreadLocal<Map<String, String>> threadProxyMethodEntityMapping =
-            ThreadLocal.withInitial(new EmptyMapSupplier());
-    private static final String HIBERNATE_PROXY_PREFIX = "org.hibernate.proxy";
-    private static final String PROXY_METHOD_PREFIX = "com.sun.proxy";
+public class HibernateQueryInterceptor extends EmptyInterceptor implements StatementInspector, AutoCloseable {
+    private final transient ThreadLocal<UnitOfWorkState> threadUnitOfWorkState =
+            ThreadLocal.withInitial(new UnitOfWorkStateSupplier());
 
     private final HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties;
+    private final DetectionSampler detectionSampler;
+    private final NPlusOneQueriesAggregator nPlusOneQueriesAggregator;
+    private final SqlFingerprints sqlFingerprints;
+    private final FetchPlanAdvisor fetchPlanAdvisor = new FetchPlanAdvisor();
+    private final ProxyBatchInitializer proxyBatchInitializer;
+    private final QueryInterceptorMetrics queryInterceptorMetrics;
+    private final SqlTraceRecorder sqlTraceRecorder;
+    private final EntityCache entityCache;
+    private final NPlusOneQueriesAnalyzer nPlusOneQueriesAnalyzer;
+    private final PersistenceContextGuard persistenceContextGuard;
+    private final Map<String, Boolean> valueCollectionEntities = new ConcurrentHashMap<>();
+
+    /**
+     * Create an interceptor exporting no metrics
+     */
+    public HibernateQueryInterceptor(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties) {
+        this(hibernateQueryInterceptorProperties, QueryInterceptorMetrics.disabled());
+    }
+
+    @Inject
+    public HibernateQueryInterceptor(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties,
+                                     QueryInterceptorMetrics queryInterceptorMetrics) {
+        this.hibernateQueryInterceptorProperties = hibernateQueryInterceptorProperties;
+        this.queryInterceptorMetrics = queryInterceptorMetrics;
+        this.detectionSampler = new DetectionSampler(hibernateQueryInterceptorProperties);
+        this.sqlFingerprints = new SqlFingerprints(hibernateQueryInterceptorProperties.getFingerprintCacheSize());
+        this.proxyBatchInitializer = new ProxyBatchInitializer(hibernateQueryInterceptorProperties);
+        this.sqlTraceRecorder = new SqlTraceRecorder(hibernateQueryInterceptorProperties);
+        this.entityCache = hibernateQueryInterceptorProperties.isEntityCacheEnabled()
+                ? new EntityCache(hibernateQueryInterceptorProperties, queryInterceptorMetrics)
+                : null;
+        this.persistenceContextGuard = hibernateQueryInterceptorProperties.isGuardingPersistenceContext()
+                ? new PersistenceContextGuard(hibernateQueryInterceptorProperties)
+                : null;
+        if (hibernateQueryInterceptorProperties.isAggregating()) {
+            this.nPlusOneQueriesAggregator = new NPlusOneQueriesAggregator(
+                    hibernateQueryInterceptorProperties.getAggregationWindow(),
+                    hibernateQueryInterceptorProperties.getMaxAggregatedCallSites(),
+                    this::logErrorMessage
+            );
+        } else {
+            this.nPlusOneQueriesAggregator = null;
+        }
+        if (hibernateQueryInterceptorProperties.isAnalyzingAsynchronously()) {
+            this.nPlusOneQueriesAnalyzer = new NPlusOneQueriesAnalyzer(
+                    this,
+                    queryInterceptorMetrics,
+                    hibernateQueryInterceptorProperties.getAsyncAnalysisQueueCapacity()
+            );
+        } else {
+            this.nPlusOneQueriesAnalyzer = null;
+        }
+    }
+
+    /**
+     * Stop the background threads of the interceptor, e.g. when the application stops, reporting the summaries of the
+     * N+1 queries aggregated in the last window
+     */
+    @Override
+    public void close() {
+        if (nPlusOneQueriesAnalyzer != null) {
+            nPlusOneQueriesAnalyzer.close();
+        }
+        if (nPlusOneQueriesAggregator != null) {
+            nPlusOneQueriesAggregator.close();
+        }
+    }
 
     /**
      * Start or reset the query count to 0 for the considered thread
      */
     public void startQueryCount() {
-        threadQueryCount.set(0L);
+        startQueryMetrics();
     }
 
     /**
      * Get the query count for the considered thread
      */
     public Long getQueryCount() {
-        return threadQueryCount.get();
+        QueryMetrics queryMetrics = getQueryMetrics();
+        return queryMetrics == null ? null : queryMetrics.getStatementCount();
+    }
+
+    /**
+     * Start or reset the query metrics of a new unit of work for the considered thread
+     *
+     * @return Query metrics of the unit of work, filled as the statements are executed
+     */
+    public QueryMetrics startQueryMetrics() {
+        QueryMetrics queryMetrics = new QueryMetrics();
+        threadUnitOfWorkState.get().setQueryMetrics(queryMetrics);
+        return queryMetrics;
+    }
+
+    /**
+     * Get the query metrics for the considered thread
+     *
+     * @return Query metrics of the current unit of work, null if they have not been started
+     */
+    public QueryMetrics getQueryMetrics() {
+        return threadUnitOfWorkState.get().getQueryMetrics();
+    }
+
+    /**
+     * Stop recording the query metrics for the considered thread
+     */
+    public void stopQueryMetrics() {
+        threadUnitOfWorkState.get().setQueryMetrics(null);
+    }
+
+    /**
+     * Start tracing the statements of a request for the considered thread, if the SQL trace is enabled
+     * <p>
+     * The trace is to be passed to {@link SqlTraceRecorder#completed(SqlTrace)} once the request is completed
+     *
+     * @param method Method of the request
+     * @param path   Path of the request
+     * @return SQL trace of the request, null if the SQL trace is disabled
+     */
+    public SqlTrace startSqlTrace(String method, String path) {
+        if (!sqlTraceRecorder.isEnabled()) {
+            return null;
+        }
+        SqlTrace sqlTrace = sqlTraceRecorder.newTrace(method, path);
+        threadUnitOfWorkState.get().setSqlTrace(sqlTrace);
+        return sqlTrace;
+    }
+
+    /**
+     * Stop tracing the statements for the considered thread
+     */
+    public void stopSqlTrace() {
+        threadUnitOfWorkState.get().setSqlTrace(null);
     }
 
     /**
-     * Increment the query count for the considered thread for each new statement if the count has been initialized
+     * Get the SQL trace started for the considered thread, to be passed to the sessions opened on other threads for
+     * the same request
+     *
+     * @return SQL trace of the current request, null if none has been started
+     */
+    public SqlTrace getSqlTrace() {
+        return threadUnitOfWorkState.get().getSqlTrace();
+    }
+
+    SqlTrace.Statement getTracedStatement() {
+        return threadUnitOfWorkState.get().getTracedStatement();
+    }
+
+    /**
+     * Create the interceptor of a new session, keeping the state of the session in its own fields
+     * <p>
+     * The session records its statements in the query metrics and the SQL trace started for the considered thread, if
+     * any
+     *
+     * @return Interceptor to register on a single session
+     */
+    public SessionQueryInterceptor newSessionInterceptor() {
+        return newSessionInterceptor(getQueryMetrics());
+    }
+
+    /**
+     * Create the interceptor of a new session, keeping the state of the session in its own fields
+     * <p>
+     * The session records its statements in the SQL trace started for the considered thread, if any
+     *
+     * @param queryMetrics Query metrics in which the session records its statements, null to record none
+     * @return Interceptor to register on a single session
+     */
+    public SessionQueryInterceptor newSessionInterceptor(QueryMetrics queryMetrics) {
+        return newSessionInterceptor(queryMetrics, getSqlTrace());
+    }
+
+    /**
+     * Create the interceptor of a new session, keeping the state of the session in its own fields
+     *
+     * @param queryMetrics Query metrics in which the session records its statements, null to record none
+     * @param sqlTrace     SQL trace in which the session records its statements, null to trace none
+     * @return Interceptor to register on a single session
+     */
+    public SessionQueryInterceptor newSessionInterceptor(QueryMetrics queryMetrics, SqlTrace sqlTrace) {
+        UnitOfWorkState state = new UnitOfWorkState(queryMetrics);
+        if (sqlTraceRecorder.isEnabled()) {
+            state.setSqlTrace(sqlTrace);
+        }
+        return new SessionQueryInterceptor(this, state);
+    }
+
+    /**
+     * Open a session with its own interceptor, bound to the session and timing its JDBC statements
+     * <p>
+     * The session records its statements in the query metrics and the SQL trace started for the considered thread, if
+     * any
+     *
+     * @param sessionFactory Session factory opening the session
+     * @return Session opened
+     */
+    public Session openSession(SessionFactory sessionFactory) {
+        return openSession(sessionFactory, getQueryMetrics());
+    }
+
+    /**
+     * Open a session with its own interceptor, bound to the session and timing its JDBC statements
+     * <p>
+     * The session records its statements in the SQL trace started for the considered thread, if any
+     *
+     * @param sessionFactory Session factory opening the session
+     * @param queryMetrics   Query metrics in which the session records its statements, null to record none
+     * @return Session opened
+     */
+    public Session openSession(SessionFactory sessionFactory, QueryMetrics queryMetrics) {
+        return openSession(sessionFactory, queryMetrics, getSqlTrace());
+    }
+
+    /**
+     * Open a session with its own interceptor, bound to the session and timing its JDBC statements
+     * <p>
+     * The query metrics and the SQL trace are those of the request the session works for, captured on the thread
+     * handling the request when the session is opened on another thread
+     *
+     * @param sessionFactory Session factory opening the session
+     * @param queryMetrics   Query metrics in which the session records its statements, null to record none
+     * @param sqlTrace       SQL trace in which the session records its statements, null to trace none
+     * @return Session opened
+     */
+    public Session openSession(SessionFactory sessionFactory, QueryMetrics queryMetrics, SqlTrace sqlTrace) {
+        SessionQueryInterceptor sessionQueryInterceptor = newSessionInterceptor(queryMetrics, sqlTrace);
+        Session session = sessionFactory.withOptions()
+                .interceptor(sessionQueryInterceptor)
+                .eventListeners(new QueryMetricsSessionEventListener(
+                        sessionQueryInterceptor::getQueryMetrics,
+                        sessionQueryInterceptor::getTracedStatement,
+                        queryInterceptorMetrics
+                ))
+                .openSession();
+        sessionQueryInterceptor.bindSession(session);
+        return session;
+    }
+
+    /**
+     * Bind the session of the current unit of work for the considered thread, needed by the automatic batch
+     * initialization of the proxies
+     *
+     * @param session Session of the unit of work
+     */
+    public void bindSession(Session session) {
+        threadUnitOfWorkState.get().getBoundSession().setSession(session.unwrap(SessionImplementor.class));
+    }
+
+    /**
+     * Unbind the session of the current unit of work for the considered thread
+     */
+    public void unbindSession() {
+        threadUnitOfWorkState.get().getBoundSession().setSession(null);
+    }
+
+    /**
+     * Get the advisor of fetch plan changes for the N+1 queries detected
+     */
+    public FetchPlanAdvisor getFetchPlanAdvisor() {
+        return fetchPlanAdvisor;
+    }
+
+    /**
+     * Get the background analyzer of the N+1 queries, null if the analysis is synchronous
+     */
+    NPlusOneQueriesAnalyzer getNPlusOneQueriesAnalyzer() {
+        return nPlusOneQueriesAnalyzer;
+    }
+
+    /**
+     * Get the metrics exported by the interceptor
+     */
+    public QueryInterceptorMetrics getQueryInterceptorMetrics() {
+        return queryInterceptorMetrics;
+    }
+
+    /**
+     * Get the recorder of the SQL traces of the requests
+     */
+    public SqlTraceRecorder getSqlTraceRecorder() {
+        return sqlTraceRecorder;
+    }
+
+    /**
+     * Increment the query count for the considered thread for each new statement if the count has been initialized,
+     * trace the statement if a SQL trace has been started and detect the N+1 queries on repeated statements if enabled
+     * <p>
+     * With the over-fetch detection, the statement is handed over to the {@link RowCountingConnectionProvider} to
+     * count its rows
+     * <p>
+     * A {@link StatementPreparedEvent} is committed to the Java Flight Recorder if enabled in a running recording
      *
      * @param sql Query to be executed
      * @return Query to be executed
      */
     @Override
     public String onPrepareStatement(String sql) {
-        Long count = threadQueryCount.get();
-        if (count != null) {
-            threadQueryCount.set(count + 1);
+        return onPrepareStatement(threadUnitOfWorkState.get(), sql);
+    }
+
+    String onPrepareStatement(UnitOfWorkState state, String sql) {
+        long start = queryInterceptorMetrics.callbackStarted();
+        try {
+            QueryMetrics queryMetrics = state.getQueryMetrics();
+            if (queryMetrics != null) {
+                queryMetrics.statementPrepared(sql);
+            }
+
+            SqlTrace sqlTrace = state.getSqlTrace();
+            if (sqlTrace != null) {
+                state.setTracedStatement(sqlTrace.statementPrepared(sql, CallStack.getApplicationFrame().orElse(null)));
+            }
+
+            StatementPreparedEvent statementPreparedEvent = new StatementPreparedEvent();
+            if (statementPreparedEvent.shouldCommit()) {
+                statementPreparedEvent.fingerprint = sqlFingerprints.fingerprint(sql);
+                statementPreparedEvent.commit();
+            }
+
+            if (hibernateQueryInterceptorProperties.isDetectingOverFetching()) {
+                new FetchedStatement(this, state, sql).prepared();
+            }
+
+            if (hibernateQueryInterceptorProperties.getRepeatedStatementThreshold() > 0) {
+                detectNPlusOneQueriesOfRepeatedStatement(state, sql);
+            }
+            return sql;
+        } finally {
+            queryInterceptorMetrics.callbackCompleted(QueryInterceptorMetrics.Callback.PREPARE_STATEMENT, start);
+        }
+    }
+
+    /**
+     * Same as {@link #onPrepareStatement(String)} when the interceptor is registered as the statement inspector
+     *
+     * @param sql Query to be executed
+     * @return Query to be executed
+     */
+    @Override
+    public String inspect(String sql) {
+        return onPrepareStatement(sql);
+    }
+
+    /**
+     * Count the entities loaded for the considered thread if the query metrics have been started, the rows of the
+     * statement traced if a SQL trace has been started, the entities managed if the persistence context guard is
+     * enabled and the entities hydrated by the statement if the over-fetch detection is enabled, and cache the entity
+     * if the entity cache is enabled
+     */
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        onLoad(threadUnitOfWorkState.get(), entity, id, state);
+        return super.onLoad(entity, id, state, propertyNames, types);
+    }
+
+    void onLoad(UnitOfWorkState state, Object entity, Serializable id, Object[] values) {
+        long start = queryInterceptorMetrics.callbackStarted();
+        if (entityCache != null) {
+            entityCache.loaded(state.getBoundSession().getSession(), entity, id, values);
+        }
+        if (persistenceContextGuard != null) {
+            persistenceContextGuard.entityLoaded(
+                    state.getPersistenceContextUsage(), state.getBoundSession().getSession()
+            );
+        }
+        QueryMetrics queryMetrics = state.getQueryMetrics();
+        if (queryMetrics != null) {
+            queryMetrics.entityLoaded();
+        }
+        SqlTrace.Statement tracedStatement = state.getTracedStatement();
+        if (tracedStatement != null) {
+            tracedStatement.rowLoaded();
+        }
+        FetchedStatement fetchedStatement = state.getFetchedStatement();
+        if (fetchedStatement != null) {
+            fetchedStatement.entityHydrated(entity.getClass().getName());
+        }
+        queryInterceptorMetrics.callbackCompleted(QueryInterceptorMetrics.Callback.LOAD, start);
+    }
+
+    /**
+     * Count the entities managed and start timing the flush if the persistence context guard is enabled
+     */
+    @Override
+    public void preFlush(Iterator entities) {
+        preFlush(threadUnitOfWorkState.get(), entities);
+    }
+
+    void preFlush(UnitOfWorkState state, Iterator<?> entities) {
+        if (persistenceContextGuard != null) {
+            persistenceContextGuard.flushStarted(
+                    state.getPersistenceContextUsage(), state.getBoundSession().getSession(), entities
+            );
+        }
+    }
+
+    /**
+     * Report the flush if it was too slow and the persistence context guard is enabled
+     */
+    @Override
+    public void postFlush(Iterator entities) {
+        postFlush(threadUnitOfWorkState.get(), entities);
+    }
+
+    void postFlush(UnitOfWorkState state, Iterator<?> entities) {
+        if (persistenceContextGuard != null) {
+            persistenceContextGuard.flushCompleted(
+                    state.getPersistenceContextUsage(), state.getBoundSession().getSession(), entities
+            );
+        }
+    }
+
+    /**
+     * Invalidate the entity in the entity cache if enabled, and count the dirty entities of the flush if the
+     * persistence context guard is enabled
+     */
+    @Override
+    public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+                                String[] propertyNames, Type[] types) {
+        onFlushDirty(threadUnitOfWorkState.get(), entity, id);
+        return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+    }
+
+    void onFlushDirty(UnitOfWorkState state, Object entity, Serializable id) {
+        if (persistenceContextGuard != null) {
+            state.getPersistenceContextUsage().entityFlushedDirty();
         }
-        return super.onPrepareStatement(sql);
+        onFlushDirtyOrDelete(state, entity, id);
+    }
+
+    /**
+     * Invalidate the entity in the entity cache if enabled
+     */
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        onFlushDirtyOrDelete(threadUnitOfWorkState.get(), entity, id);
+    }
+
+    void onFlushDirtyOrDelete(UnitOfWorkState state, Object entity, Serializable id) {
+        if (entityCache == null) {
+            return;
+        }
+        EntityCache.Key key = entityCache.invalidate(entity, id);
+        if (key != null) {
+            state.getInvalidatedEntities().add(key);
+        }
+    }
+
+    /**
+     * Forget an entity evicted from the session, so that loading it again is not taken for the second getEntity call
+     * of a N+1 query and that streaming reads evicting their entities keep the loaded entities bounded
+     * <p>
+     * Hibernate has no interceptor callback on eviction, to be called by the code evicting the entities
+     *
+     * @param entityName Name of the evicted entity
+     * @param id         Id of the evicted entity
+     */
+    public void onEvict(String entityName, Serializable id) {
+        onEvict(threadUnitOfWorkState.get(), entityName, id);
+    }
+
+    void onEvict(UnitOfWorkState state, String entityName, Serializable id) {
+        state.getPreviouslyLoadedEntities().remove(EntityNameIndex.indexOf(entityName), id);
+        state.getPersistenceContextUsage().entityEvicted();
     }
 
     /**
      * Reset previously loaded entities after the end of a transaction to avoid triggering
-     * N+1 queries exceptions because of loading same instance in two different transactions
+     * N+1 queries exceptions because of loading same instance in two different transactions, and record the N+1
+     * queries detected in the transaction in the fetch plan advisor
+     * <p>
+     * The entities invalidated in the entity cache during the transaction are invalidated again, in case a concurrent
+     * session cached their state before the transaction committed
      *
      * @param tx Transaction having been completed
      */
     @Override
     public void afterTransactionCompletion(Transaction tx) {
-        threadPreviouslyLoadedEntities.set(new HashSet<>());
-        threadProxyMethodEntityMapping.set(new HashMap<>());
+        transactionCompleted(threadUnitOfWorkState.get());
+    }
+
+    void transactionCompleted(UnitOfWorkState state) {
+        long start = queryInterceptorMetrics.callbackStarted();
+        if (entityCache != null) {
+            state.getInvalidatedEntities().forEach(entityCache::invalidate);
+        }
+        state.transactionCompleted();
+        FetchedStatement.clearPrepared();
+        fetchPlanAdvisor.transactionCompleted(state.getTransactionDetections());
+        if (nPlusOneQueriesAnalyzer != null) {
+            nPlusOneQueriesAnalyzer.transactionCompleted(state.getId());
+        }
+        queryInterceptorMetrics.callbackCompleted(QueryInterceptorMetrics.Callback.TRANSACTION_COMPLETION, start);
+    }
+
+    /**
+     * Detect the over-fetching of a statement closed by the {@link RowCountingConnectionProvider}, if enabled
+     *
+     * @param state     State of the unit of work
+     * @param statement Statement closed, with its rows read and its entities hydrated
+     */
+    void statementClosed(UnitOfWorkState state, FetchedStatement statement) {
+        long start = queryInterceptorMetrics.callbackStarted();
+        try {
+            detectOverFetchingStatement(state, statement);
+        } finally {
+            queryInterceptorMetrics.callbackCompleted(QueryInterceptorMetrics.Callback.STATEMENT_CLOSE, start);
+        }
     }
 
     /**
@@ -72,29 +566,181 @@ public class HibernateQueryInterceptor extends EmptyInterceptor {
      * <p>
      * The first call is made with the instance filled with a {@link HibernateProxy}
      * and the second is made after a query was executed to fetch the data in the Entity
+     * <p>
+     * The call stack is walked at most once and shared by both detections, which are skipped altogether for the
+     * transactions and entities left out by the sampling strategy
+     * <p>
+     * With the automatic batch initialization, a proxy initialized from the getter of an entity is loaded in a single
+     * query with its uninitialized siblings, so the N+1 queries are reported before they happen and the later
+     * initializations of the siblings hit the persistence context
+     * <p>
+     * With the entity cache, the entities annotated with {@link EntityCacheable} are returned from the cache without
+     * querying the database, provided the session is bound to the interceptor
+     * <p>
+     * With the second-level cache, a proxy initialized from the cache is no round trip to the database, it is
+     * therefore not counted as loaded and never reported, provided the session is bound to the interceptor
+     * <p>
+     * With the asynchronous analysis, the call stack is captured and both detections are left to the analyzer
      *
      * @param entityName Name of the entity to get
      * @param id         Id of the entity to get
+     * @return Entity from the entity cache or loaded by the automatic batch initialization, null otherwise to let
+     * Hibernate load it
      */
     @Override
     public Object getEntity(String entityName, Serializable id) {
-        detectNPlusOneQueriesOfMissingQueryEagerFetching(entityName, id);
+        return getEntity(threadUnitOfWorkState.get(), entityName, id);
+    }
+
+    Object getEntity(UnitOfWorkState state, String entityName, Serializable id) {
+        long start = queryInterceptorMetrics.callbackStarted();
+        try {
+            return detectNPlusOneQueriesOnGetEntity(state, entityName, id);
+        } finally {
+            queryInterceptorMetrics.callbackCompleted(QueryInterceptorMetrics.Callback.GET_ENTITY, start);
+        }
+    }
+
+    private Object detectNPlusOneQueriesOnGetEntity(UnitOfWorkState state, String entityName, Serializable id) {
+        boolean autoBatchInitialization = hibernateQueryInterceptorProperties.isAutoBatchInitialization();
+        if (autoBatchInitialization && state.getBoundSession().isBatchInitializing()) {
+            return null;
+        }
+
+        if (entityCache != null) {
+            Object entity = entityCache.get(state.getBoundSession().getSession(), entityName, id);
+            if (entity != null) {
+                return entity;
+            }
+        }
 
-        detectNPlusOneQueriesOfMissingEntityFieldLazyFetching(entityName, id);
+        int entityIndex = EntityNameIndex.indexOf(entityName);
+        if (
+                detectionSampler.isSampling()
+                        && !state.getTransactionSampling().isSampled(detectionSampler, entityIndex, entityName)
+        ) {
+            return null;
+        }
 
-        Set<String> previouslyLoadedEntities = threadPreviouslyLoadedEntities.get();
+        LoadedEntities previouslyLoadedEntities = state.getPreviouslyLoadedEntities();
+        boolean previouslyLoaded = previouslyLoadedEntities.contains(entityIndex, id);
+        if (!previouslyLoaded && isInitializedFromSecondLevelCache(state, entityName, id)) {
+            return null;
+        }
+
+        if (nPlusOneQueriesAnalyzer != null) {
+            nPlusOneQueriesAnalyzer.getEntity(state.getId(), entityName, previouslyLoaded);
+        } else {
+            CallStack callStack = new CallStack(entityName);
+
+            if (autoBatchInitialization && !previouslyLoaded) {
+                Object entity = initializeProxiesInBatch(state, entityName, id, callStack);
+                if (entity != null) {
+                    return entity;
+                }
+            }
+
+            analyzeGetEntity(state, entityName, previouslyLoaded, callStack);
+        }
 
-        if (previouslyLoadedEntities.contains(entityName + id)) {
-            previouslyLoadedEntities.remove(entityName + id);
-            threadPreviouslyLoadedEntities.set(previouslyLoadedEntities);
+        if (previouslyLoaded) {
+            previouslyLoadedEntities.remove(entityIndex, id);
         } else {
-            previouslyLoadedEntities.add(entityName + id);
-            threadPreviouslyLoadedEntities.set(previouslyLoadedEntities);
+            previouslyLoadedEntities.add(entityIndex, id);
         }
 
         return null;
     }
 
+    /**
+     * Apply the detections on entities to a getEntity call, on the calling thread or on the analyzer thread
+     *
+     * @param state            State of the unit of work, or its analysis state on the analyzer thread
+     * @param entityName       Name of the entity
+     * @param previouslyLoaded Whether the getEntity was already called for the couple (entity, id)
+     * @param callStack        Call stack of the getEntity call
+     */
+    void analyzeGetEntity(UnitOfWorkState state, String entityName, boolean previouslyLoaded, CallStack callStack) {
+        detectNPlusOneQueriesOfMissingQueryEagerFetching(state, entityName, previouslyLoaded, callStack);
+
+        detectNPlusOneQueriesOfMissingEntityFieldLazyFetching(state, entityName, previouslyLoaded, callStack);
+    }
+
+    /**
+     * Record the N+1 queries detected by the analyzer in a completed transaction in the fetch plan advisor
+     *
+     * @param analysisState Analysis state of the unit of work
+     */
+    void transactionAnalyzed(UnitOfWorkState analysisState) {
+        fetchPlanAdvisor.transactionCompleted(analysisState.getTransactionDetections());
+    }
+
+    /**
+     * Tell whether the proxy of an entity is about to be initialized from the second-level cache instead of the
+     * database, counting the hits and the misses of the cached entities in the metrics
+     * <p>
+     * The first getEntity call of a proxy initialization is made before the cache is looked up, the entity is
+     * therefore looked up in the cache beforehand
+     *
+     * @param state      State of the unit of work
+     * @param entityName Name of the entity
+     * @param id         Id of the entity
+     * @return Boolean telling whether the proxy is initialized from the cache, false if no session is bound
+     */
+    private boolean isInitializedFromSecondLevelCache(UnitOfWorkState state, String entityName, Serializable id) {
+        SessionImplementor session = state.getBoundSession().getSession();
+        if (session == null) {
+            return false;
+        }
+        SessionFactoryImplementor sessionFactory = session.getFactory();
+        if (!sessionFactory.getSessionFactoryOptions().isSecondLevelCacheEnabled()) {
+            return false;
+        }
+        EntityPersister entityPersister = sessionFactory.getMetamodel().entityPersister(entityName);
+        if (!entityPersister.canReadFromCache()) {
+            return false;
+        }
+        if (session.getPersistenceContext().getProxy(session.generateEntityKey(id, entityPersister)) == null) {
+            return false;
+        }
+
+        boolean hit = sessionFactory.getCache().containsEntity(entityName, id);
+        queryInterceptorMetrics.secondLevelCacheRequested(entityName, hit);
+        return hit;
+    }
+
+    /**
+     * Initialize the proxy with its sibling proxies when it is initialized from the getter of an entity, reporting the
+     * N+1 queries of a missing eager fetching avoided this way
+     *
+     * @param state      State of the unit of work
+     * @param entityName Name of the entity
+     * @param id         Id of the entity
+     * @param callStack  Call stack of the getEntity call
+     * @return Entity loaded in batch, null if no session is bound or the proxy has no sibling
+     */
+    private Object initializeProxiesInBatch(UnitOfWorkState state, String entityName, Serializable id,
+                                            CallStack callStack) {
+        BoundSession boundSession = state.getBoundSession();
+        if (boundSession.getSession() == null) {
+            return null;
+        }
+        Optional<StackTraceElement> optionalOriginStackTraceElement = callStack.getEagerFetchingOrigin();
+        if (!optionalOriginStackTraceElement.isPresent()) {
+            return null;
+        }
+
+        Object entity = proxyBatchInitializer.initialize(boundSession, entityName, id);
+        if (entity != null) {
+            logDetectedNPlusOneQueries(state, NPlusOneQueriesDetection.onEntity(
+                    entityName,
+                    optionalOriginStackTraceElement.get(),
+                    NPlusOneQueriesDetection.Hint.MISSING_EAGER_FETCHING
+            ));
+        }
+        return entity;
+    }
+
     /**
      * Detect the N+1 queries caused by a missing eager fetching configuration on a query with a lazy loaded field
      * <p>
@@ -105,41 +751,30 @@ public class HibernateQueryInterceptor extends EmptyInterceptor {
      * - There is an occurrence of hibernate proxy followed by entity class in the stackTraceElements
      * Avoid detecting calls to queries like findById and queries with eager fetching on some entity fields
      *
-     * @param entityName Name of the entity
-     * @param id         Id of the entity objecy
+     * @param state            State of the unit of work
+     * @param entityName       Name of the entity
+     * @param previouslyLoaded Whether the getEntity was already called for the couple (entity, id)
+     * @param callStack        Call stack of the getEntity call
      * @return Boolean telling whether N+1 queries were detected or not
      */
-    private boolean detectNPlusOneQueriesOfMissingQueryEagerFetching(String entityName, Serializable id) {
-        Set<String> previouslyLoadedEntities = threadPreviouslyLoadedEntities.get();
-
-        if (!previouslyLoadedEntities.contains(entityName + id)) {
+    private boolean detectNPlusOneQueriesOfMissingQueryEagerFetching(UnitOfWorkState state, String entityName,
+                                                                     boolean previouslyLoaded, CallStack callStack) {
+        if (!previouslyLoaded) {
             return false;
         }
 
         // Detect N+1 queries by searching for newest occurrence of Hibernate proxy followed by entity class in stack
         // elements
-        StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
-        StackTraceElement originStackTraceElement = null;
-
-        for (int i = 0; i < stackTraceElements.length - 3; i++) {
-            if (
-                    stackTraceElements[i].getClassName().indexOf(HIBERNATE_PROXY_PREFIX) == 0
-                            && stackTraceElements[i + 1].getClassName().indexOf(entityName) == 0
-            ) {
-                originStackTraceElement = stackTraceElements[i + 2];
-                break;
-            }
-        }
-
-        if (originStackTraceElement == null) {
+        Optional<StackTraceElement> optionalOriginStackTraceElement = callStack.getEagerFetchingOrigin();
+        if (!optionalOriginStackTraceElement.isPresent()) {
             return false;
         }
 
-        String errorMessage = "N+1 queries detected on a getter of the entity " + entityName +
-                "\n    at " + originStackTraceElement.toString() +
-                "\n    Hint: Missing Eager fetching configuration on the query that fetched the object of " +
-                "type " + entityName + "\n";
-        logDetectedNPlusOneQueries(errorMessage);
+        logDetectedNPlusOneQueries(state, NPlusOneQueriesDetection.onEntity(
+                entityName,
+                optionalOriginStackTraceElement.get(),
+                NPlusOneQueriesDetection.Hint.MISSING_EAGER_FETCHING
+        ));
 
         return true;
     }
@@ -153,76 +788,228 @@ public class HibernateQueryInterceptor extends EmptyInterceptor {
      * - The query that triggered the fetching of the entity object was first called for a different entity
      * Avoid detecting calls to queries like findById
      *
-     * @param entityName Name of the entity
-     * @param id         Id of the entity objecy
+     * @param state            State of the unit of work
+     * @param entityName       Name of the entity
+     * @param previouslyLoaded Whether the getEntity was already called for the couple (entity, id)
+     * @param callStack        Call stack of the getEntity call
      * @return Boolean telling whether N+1 queries were detected or not
      */
-    private boolean detectNPlusOneQueriesOfMissingEntityFieldLazyFetching(String entityName, Serializable id) {
-        Optional<String> optionalProxyMethodName = getProxyMethodName();
+    private boolean detectNPlusOneQueriesOfMissingEntityFieldLazyFetching(UnitOfWorkState state, String entityName,
+                                                                          boolean previouslyLoaded,
+                                                                          CallStack callStack) {
+        Optional<String> optionalProxyMethodName = callStack.getProxyMethodName();
         if (!optionalProxyMethodName.isPresent()) {
             return false;
         }
         String proxyMethodName = optionalProxyMethodName.get();
 
-        Set<String> previouslyLoadedEntities = threadPreviouslyLoadedEntities.get();
-        Map<String, String> proxyMethodEntityMapping = threadProxyMethodEntityMapping.get();
+        Map<String, String> proxyMethodEntityMapping = state.getProxyMethodEntityMapping();
 
         boolean nPlusOneQueriesDetected = false;
         if (
-                previouslyLoadedEntities.contains(entityName + id)
+                previouslyLoaded
                         && proxyMethodEntityMapping.containsKey(proxyMethodName)
                         && !proxyMethodEntityMapping.get(proxyMethodName).equals(entityName)
         ) {
             nPlusOneQueriesDetected = true;
 
-            String errorMessage = "N+1 queries detected on a query for the entity " + entityName;
-
             // Find origin of the N+1 queries in client package
             // by getting oldest occurrence of proxy method in stack elements
-            StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+            logDetectedNPlusOneQueries(state, NPlusOneQueriesDetection.onEntity(
+                    entityName,
+                    callStack.getProxyMethodOrigin().orElse(null),
+                    NPlusOneQueriesDetection.Hint.MISSING_LAZY_FETCHING
+            ));
+        }
 
-            for (int i = stackTraceElements.length - 1; i >= 1; i--) {
-                if (stackTraceElements[i - 1].getClassName().indexOf(PROXY_METHOD_PREFIX) == 0) {
-                    errorMessage += "\n    at " + stackTraceElements[i].toString();
-                    break;
-                }
-            }
+        proxyMethodEntityMapping.putIfAbsent(proxyMethodName, entityName);
+        return nPlusOneQueriesDetected;
+    }
 
-            errorMessage += "\n    Hint: Missing Lazy fetching configuration on a field of one of the entities " +
-                    "fetched in the query\n";
+    /**
+     * Detect the N+1 queries at the SQL level, catching the patterns missed by the detections on entities
+     * <p>
+     * Detection checks:
+     * - The statement fingerprint, without literals and with IN-lists collapsed, was executed more than the
+     * configured threshold in the transaction
+     * <p>
+     * N+1 queries are only reported once per statement fingerprint and transaction
+     *
+     * @param state State of the unit of work
+     * @param sql   Query to be executed
+     * @return Boolean telling whether N+1 queries were detected or not
+     */
+    private boolean detectNPlusOneQueriesOfRepeatedStatement(UnitOfWorkState state, String sql) {
+        if (detectionSampler.isSampling() && !state.getTransactionSampling().isSampled(detectionSampler)) {
+            return false;
+        }
 
-            logDetectedNPlusOneQueries(errorMessage);
+        String fingerprint = sqlFingerprints.fingerprint(sql);
+        int executionCount = state.getRepeatedStatements().executed(fingerprint);
+        if (executionCount != hibernateQueryInterceptorProperties.getRepeatedStatementThreshold() + 1) {
+            return false;
         }
 
-        proxyMethodEntityMapping.putIfAbsent(proxyMethodName, entityName);
-        return nPlusOneQueriesDetected;
+        logDetectedNPlusOneQueries(state, NPlusOneQueriesDetection.onStatement(
+                fingerprint,
+                new CallStack(null).getProxyMethodOrigin().orElse(null)
+        ));
+        return true;
     }
 
     /**
-     * Get the Proxy method name that was called first to know which query triggered the interceptor
+     * Detect a statement reading far more rows than the entities it hydrates, typically the Cartesian product of
+     * several collections fetched with a join, each row repeating the entities of the other collections
+     * <p>
+     * Detection checks:
+     * - The statement read at least the configured minimum number of rows
+     * <p>
+     * - The rows read are at least the configured ratio times the entities hydrated for the entity hydrated the most,
+     * and times the root entities read, a query without Cartesian product reading about one row per entity of its
+     * largest collection. The root entities the session already managed are read but not hydrated again
+     * <p>
+     * - None of the entities hydrated maps a collection of values, e.g. an @ElementCollection, whose rows are not
+     * hydrated as entities, checked when a session is bound to the interceptor
+     * <p>
+     * Over-fetching is only reported once per statement fingerprint and transaction
      *
-     * @return Optional of method name if found
+     * @param state     State of the unit of work
+     * @param statement Statement closed
+     * @return Boolean telling whether over-fetching was detected or not
      */
-    private Optional<String> getProxyMethodName() {
-        StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+    private boolean detectOverFetchingStatement(UnitOfWorkState state, FetchedStatement statement) {
+        long rows = statement.getRows();
+        int maxHydratedEntities = statement.getMaxHydratedEntities();
+        if (
+                rows < hibernateQueryInterceptorProperties.getOverFetchMinRows()
+                        || maxHydratedEntities == 0
+                        || rows < hibernateQueryInterceptorProperties.getOverFetchRatio()
+                        * Math.max(maxHydratedEntities, statement.getRootEntities())
+                        || isFetchingValueCollection(state.getBoundSession().getSession(), statement)
+        ) {
+            return false;
+        }
 
-        for (int i = stackTraceElements.length - 1; i >= 0; i--) {
-            StackTraceElement stackTraceElement = stackTraceElements[i];
+        String fingerprint = sqlFingerprints.fingerprint(statement.getSql());
+        if (!state.getOverFetchingStatements().add(fingerprint)) {
+            return false;
+        }
+
+        String rootEntityName = statement.getRootEntityName();
+        logDetectedOverFetching(
+                state,
+                NPlusOneQueriesDetection.onOverFetchingStatement(
+                        rootEntityName, fingerprint, CallStack.getApplicationFrame().orElse(null)
+                ),
+                "    Rows: " + rows + " rows read for " + statement.getRootEntities() + " root entities and at most " +
+                        maxHydratedEntities + " entities of a single type hydrated\n"
+        );
+        return true;
+    }
 
-            if (stackTraceElement.getClassName().indexOf("com.sun.proxy") == 0) {
-                return Optional.of(stackTraceElement.getClassName() + stackTraceElement.getMethodName());
+    /**
+     * Tell whether one of the entities hydrated by a statement maps a collection of values, the mapping of each
+     * entity being inspected once
+     *
+     * @param session   Session bound to the interceptor, null if none
+     * @param statement Statement closed
+     * @return Boolean telling whether a collection of values may have been fetched, false if no session is bound
+     */
+    private boolean isFetchingValueCollection(SessionImplementor session, FetchedStatement statement) {
+        if (session == null) {
+            return false;
+        }
+        SessionFactoryImplementor sessionFactory = session.getFactory();
+        for (String entityName : statement.getHydratedEntityNames()) {
+            boolean mapsValueCollection = valueCollectionEntities.computeIfAbsent(entityName, key -> {
+                for (Type type : sessionFactory.getMetamodel().entityPersister(key).getPropertyTypes()) {
+                    if (
+                            type instanceof CollectionType
+                                    && !((CollectionType) type).getElementType(sessionFactory).isEntityType()
+                    ) {
+                        return true;
+                    }
+                }
+                return false;
+            });
+            if (mapsValueCollection) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Log the detected over-fetching error message depending on the configured error level, along with the rows
+     * read
+     * <p>
+     * Hibernate swallows the exceptions thrown while closing a statement, the over-fetching is therefore logged at
+     * ERROR level instead of thrown with the EXCEPTION error level
+     *
+     * @param state     State of the unit of work
+     * @param detection Over-fetching detected
+     * @param rows      Rows read and entities hydrated by the statement
+     */
+    private void logDetectedOverFetching(UnitOfWorkState state, NPlusOneQueriesDetection detection, String rows) {
+        recordDetection(state, detection);
 
-        return Optional.empty();
+        if (nPlusOneQueriesAggregator != null) {
+            nPlusOneQueriesAggregator.record(detection);
+        } else if (hibernateQueryInterceptorProperties.getErrorLevel() == ErrorLevel.EXCEPTION) {
+            log.error(detection.getMessage() + rows);
+        } else {
+            logErrorMessage(detection.getMessage() + rows);
+        }
     }
 
     /**
      * Log the detected N+1 queries error message or throw an exception depending on the configured error level
+     * <p>
+     * When aggregating, the occurrences are counted per call site and logged later in a summary
+     * <p>
+     * The detection is also recorded by the fetch plan advisor, counted in the metrics and committed as a
+     * {@link NPlusOneQueriesEvent} to the Java Flight Recorder if enabled in a running recording
+     *
+     * @param state     State of the unit of work
+     * @param detection N+1 queries detected
+     */
+    private void logDetectedNPlusOneQueries(UnitOfWorkState state, NPlusOneQueriesDetection detection) {
+        recordDetection(state, detection);
+
+        if (hibernateQueryInterceptorProperties.getErrorLevel() == ErrorLevel.EXCEPTION) {
+            throw new NPlusOneQueriesException(detection.getMessage());
+        }
+
+        if (nPlusOneQueriesAggregator != null) {
+            nPlusOneQueriesAggregator.record(detection);
+        } else {
+            logErrorMessage(detection.getMessage());
+        }
+    }
+
+    /**
+     * Record the detection in the fetch plan advisor, the metrics, the Java Flight Recorder and the detections of the
+     * transaction
+     */
+    private void recordDetection(UnitOfWorkState state, NPlusOneQueriesDetection detection) {
+        fetchPlanAdvisor.detected(detection);
+        queryInterceptorMetrics.detected(detection);
+        NPlusOneQueriesEvent.commit(detection);
+        state.getTransactionDetections().detected(detection);
+        if (
+                detection.getEntityName() != null
+                        && detection.getHint() != NPlusOneQueriesDetection.Hint.CARTESIAN_PRODUCT
+        ) {
+            detectionSampler.reported(detection.getEntityName());
+        }
+    }
+
+    /**
+     * Log the error message depending on the configured error level
      *
      * @param errorMessage Error message for the N+1 queries detected
      */
-    private void logDetectedNPlusOneQueries(String errorMessage) {
+    private void logErrorMessage(String errorMessage) {
         switch (hibernateQueryInterceptorProperties.getErrorLevel()) {
             case INFO:
                 log.info(errorMessage);
@@ -239,14 +1026,8 @@ public class HibernateQueryInterceptor extends EmptyInterceptor {
     }
 }
 
-class EmptySetSupplier implements Supplier<Set<String>> {
-    public Set<String> get() {
-        return new HashSet<>();
-    }
-}
-
-class EmptyMapSupplier implements Supplier<Map<String, String>> {
-    public Map<String, String> get() {
-        return new HashMap<>();
+class UnitOfWorkStateSupplier implements Supplier<UnitOfWorkState> {
+    public UnitOfWorkState get() {
+        return new UnitOfWorkState(null);
     }
 }
@@ -1,18 +1,150 @@
 package com.jpozarycki.interceptor;
 
+import java.time.Duration;
+
 public class HibernateQueryInterceptorProperties {
-    enum ErrorLevel {
+    public enum ErrorLevel {
         INFO,
         WARN,
         ERROR,
         EXCEPTION
     }
 
+    public enum SamplingStrategy {
+        /**
+         * Detect N+1 queries in every transaction
+         */
+        NONE,
+        /**
+         * Detect N+1 queries in a fraction of the transactions
+         */
+        FRACTION,
+        /**
+         * Detect N+1 queries in a fraction of the transactions, halving the fraction for an entity each time
+         * N+1 queries are reported on it
+         */
+        ADAPTIVE
+    }
+
     /**
      * Error level for the N+1 queries detection.
      */
     private ErrorLevel errorLevel = ErrorLevel.ERROR;
 
+    /**
+     * Sampling strategy for the N+1 queries detection.
+     */
+    private SamplingStrategy samplingStrategy = SamplingStrategy.NONE;
+
+    /**
+     * Fraction of the transactions in which N+1 queries are detected when sampling.
+     */
+    private double samplingRate = 1.0;
+
+    /**
+     * Lowest fraction of the transactions in which N+1 queries are detected for an entity with adaptive sampling.
+     */
+    private double minSamplingRate = 0.01;
+
+    /**
+     * Window over which the N+1 queries detected are counted per call site and logged in one summary, zero to log
+     * each occurrence, at least a millisecond otherwise. Not applied with the EXCEPTION error level.
+     */
+    private Duration aggregationWindow = Duration.ZERO;
+
+    /**
+     * Maximum number of call sites counted in an aggregation window.
+     */
+    private int maxAggregatedCallSites = 1000;
+
+    /**
+     * Number of executions of a same statement in a transaction above which N+1 queries are detected on the
+     * statement, zero to disable the detection.
+     */
+    private int repeatedStatementThreshold = 0;
+
+    /**
+     * Maximum number of statements whose fingerprint is cached.
+     */
+    private int fingerprintCacheSize = 1000;
+
+    /**
+     * Whether a proxy initialized from the getter of an entity is initialized in a single query with the other
+     * uninitialized proxies of its entity in the session bound to the interceptor, avoiding the N+1 queries of a
+     * missing eager fetching.
+     */
+    private boolean autoBatchInitialization = false;
+
+    /**
+     * Maximum number of proxies initialized in a single query by the automatic batch initialization.
+     */
+    private int autoBatchInitializationSize = 100;
+
+    /**
+     * Whether the statements of each request are traced by the SQL trace recorder, e.g. to profile in dev mode.
+     */
+    private boolean sqlTraceEnabled = false;
+
+    /**
+     * Number of the last requests whose SQL trace is kept.
+     */
+    private int sqlTraceCapacity = 100;
+
+    /**
+     * Maximum number of statements traced per request, the further statements being only counted.
+     */
+    private int sqlTraceMaxStatements = 1000;
+
+    /**
+     * Whether the entities annotated with EntityCacheable are cached by the interceptor and returned from getEntity
+     * without querying the database.
+     */
+    private boolean entityCacheEnabled = false;
+
+    /**
+     * Maximum weight of the entity cache, each entity weighing its number of properties plus one.
+     */
+    private long entityCacheMaximumWeight = 100_000;
+
+    /**
+     * Time to live of the entities in the entity cache.
+     */
+    private Duration entityCacheExpireAfterWrite = Duration.ofMinutes(10);
+
+    /**
+     * Whether the N+1 queries detections on entities are run by a background analyzer, the request threads only
+     * capturing their call stacks. Not applied with the EXCEPTION error level nor the automatic batch initialization.
+     */
+    private boolean asyncAnalysisEnabled = false;
+
+    /**
+     * Maximum number of getEntity calls waiting for the background analyzer, the further calls being dropped.
+     */
+    private int asyncAnalysisQueueCapacity = 10_000;
+
+    /**
+     * Number of entities managed by a session above which the persistence context is reported as too large, zero to
+     * disable the check.
+     */
+    private int maxManagedEntities = 0;
+
+    /**
+     * Duration of a flush above which the flush is reported as too slow, zero to disable the check.
+     */
+    private Duration maxFlushDuration = Duration.ZERO;
+
+    /**
+     * Ratio of the rows read by a statement to the entities of a single type it hydrated above which the statement is
+     * reported as over-fetching, e.g. a Cartesian product of several collections fetched with a join, zero to disable
+     * the detection. Needs the {@link RowCountingConnectionProvider}.
+     */
+    private double overFetchRatio = 0;
+
+    /**
+     * Minimum number of rows read by a statement for it to be reported as over-fetching.
+     */
+    private int overFetchMinRows = 100;
+
     public ErrorLevel getErrorLevel() {
         return errorLevel;
     }
@@ -20,4 +152,198 @@ public class HibernateQueryInterceptorProperties {
     public void setErrorLevel(String errorLevel) {
         this.errorLevel = ErrorLevel.valueOf(errorLevel);
     }
+
+    public SamplingStrategy getSamplingStrategy() {
+        return samplingStrategy;
+    }
+
+    public void setSamplingStrategy(String samplingStrategy) {
+        this.samplingStrategy = SamplingStrategy.valueOf(samplingStrategy);
+    }
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    public void setSamplingRate(double samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+
+    public double getMinSamplingRate() {
+        return minSamplingRate;
+    }
+
+    public void setMinSamplingRate(double minSamplingRate) {
+        this.minSamplingRate = minSamplingRate;
+    }
+
+    public Duration getAggregationWindow() {
+        return aggregationWindow;
+    }
+
+    /**
+     * @param aggregationWindow Aggregation window, zero to disable the aggregation
+     * @throws IllegalArgumentException If the window is positive but shorter than a millisecond, the resolution of
+     *                                  the flushes
+     */
+    public void setAggregationWindow(Duration aggregationWindow) {
+        if (aggregationWindow.compareTo(Duration.ZERO) > 0 && aggregationWindow.toMillis() < 1) {
+            throw new IllegalArgumentException(
+                    "The aggregation window must be zero or at least 1ms, got " + aggregationWindow
+            );
+        }
+        this.aggregationWindow = aggregationWindow;
+    }
+
+    public int getMaxAggregatedCallSites() {
+        return maxAggregatedCallSites;
+    }
+
+    public void setMaxAggregatedCallSites(int maxAggregatedCallSites) {
+        this.maxAggregatedCallSites = maxAggregatedCallSites;
+    }
+
+    public int getRepeatedStatementThreshold() {
+        return repeatedStatementThreshold;
+    }
+
+    public void setRepeatedStatementThreshold(int repeatedStatementThreshold) {
+        this.repeatedStatementThreshold = repeatedStatementThreshold;
+    }
+
+    public int getFingerprintCacheSize() {
+        return fingerprintCacheSize;
+    }
+
+    public void setFingerprintCacheSize(int fingerprintCacheSize) {
+        this.fingerprintCacheSize = fingerprintCacheSize;
+    }
+
+    public boolean isAutoBatchInitialization() {
+        return autoBatchInitialization;
+    }
+
+    public void setAutoBatchInitialization(boolean autoBatchInitialization) {
+        this.autoBatchInitialization = autoBatchInitialization;
+    }
+
+    public int getAutoBatchInitializationSize() {
+        return autoBatchInitializationSize;
+    }
+
+    public void setAutoBatchInitializationSize(int autoBatchInitializationSize) {
+        this.autoBatchInitializationSize = autoBatchInitializationSize;
+    }
+
+    public boolean isSqlTraceEnabled() {
+        return sqlTraceEnabled;
+    }
+
+    public void setSqlTraceEnabled(boolean sqlTraceEnabled) {
+        this.sqlTraceEnabled = sqlTraceEnabled;
+    }
+
+    public int getSqlTraceCapacity() {
+        return sqlTraceCapacity;
+    }
+
+    public void setSqlTraceCapacity(int sqlTraceCapacity) {
+        this.sqlTraceCapacity = sqlTraceCapacity;
+    }
+
+    public int getSqlTraceMaxStatements() {
+        return sqlTraceMaxStatements;
+    }
+
+    public void setSqlTraceMaxStatements(int sqlTraceMaxStatements) {
+        this.sqlTraceMaxStatements = sqlTraceMaxStatements;
+    }
+
+    public boolean isEntityCacheEnabled() {
+        return entityCacheEnabled;
+    }
+
+    public void setEntityCacheEnabled(boolean entityCacheEnabled) {
+        this.entityCacheEnabled = entityCacheEnabled;
+    }
+
+    public long getEntityCacheMaximumWeight() {
+        return entityCacheMaximumWeight;
+    }
+
+    public void setEntityCacheMaximumWeight(long entityCacheMaximumWeight) {
+        this.entityCacheMaximumWeight = entityCacheMaximumWeight;
+    }
+
+    public Duration getEntityCacheExpireAfterWrite() {
+        return entityCacheExpireAfterWrite;
+    }
+
+    public void setEntityCacheExpireAfterWrite(Duration entityCacheExpireAfterWrite) {
+        this.entityCacheExpireAfterWrite = entityCacheExpireAfterWrite;
+    }
+
+    public boolean isAsyncAnalysisEnabled() {
+        return asyncAnalysisEnabled;
+    }
+
+    public void setAsyncAnalysisEnabled(boolean asyncAnalysisEnabled) {
+        this.asyncAnalysisEnabled = asyncAnalysisEnabled;
+    }
+
+    public int getAsyncAnalysisQueueCapacity() {
+        return asyncAnalysisQueueCapacity;
+    }
+
+    public void setAsyncAnalysisQueueCapacity(int asyncAnalysisQueueCapacity) {
+        this.asyncAnalysisQueueCapacity = asyncAnalysisQueueCapacity;
+    }
+
+    public int getMaxManagedEntities() {
+        return maxManagedEntities;
+    }
+
+    public void setMaxManagedEntities(int maxManagedEntities) {
+        this.maxManagedEntities = maxManagedEntities;
+    }
+
+    public Duration getMaxFlushDuration() {
+        return maxFlushDuration;
+    }
+
+    public void setMaxFlushDuration(Duration maxFlushDuration) {
+        this.maxFlushDuration = maxFlushDuration;
+    }
+
+    public double getOverFetchRatio() {
+        return overFetchRatio;
+    }
+
+    public void setOverFetchRatio(double overFetchRatio) {
+        this.overFetchRatio = overFetchRatio;
+    }
+
+    public int getOverFetchMinRows() {
+        return overFetchMinRows;
+    }
+
+    public void setOverFetchMinRows(int overFetchMinRows) {
+        this.overFetchMinRows = overFetchMinRows;
+    }
+
+    public boolean isDetectingOverFetching() {
+        return overFetchRatio > 0;
+    }
+
+    public boolean isGuardingPersistenceContext() {
+        return maxManagedEntities > 0 || (!maxFlushDuration.isZero() && !maxFlushDuration.isNegative());
+    }
+
+    public boolean isAnalyzingAsynchronously() {
+        return asyncAnalysisEnabled && errorLevel != ErrorLevel.EXCEPTION && !autoBatchInitialization;
+    }
+
+    public boolean isAggregating() {
+        return !aggregationWindow.isZero() && !aggregationWindow.isNegative() && errorLevel != ErrorLevel.EXCEPTION;
+    }
 }
@@ -0,0 +1,92 @@
+package com.jpozarycki.interceptor;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Couples (entity, id) loaded in a transaction, tracked by entity name index
+ * <p>
+ * Integral ids are kept in primitive sets so that tracking a loaded entity does not allocate in steady state, other
+ * {@link Serializable} ids fall back on a regular set
+ */
+class LoadedEntities {
+    private EntityIds[] entityIdsByIndex = new EntityIds[16];
+
+    boolean contains(int entityIndex, Serializable id) {
+        if (entityIndex >= entityIdsByIndex.length || entityIdsByIndex[entityIndex] == null) {
+            return false;
+        }
+        return entityIdsByIndex[entityIndex].contains(id);
+    }
+
+    void add(int entityIndex, Serializable id) {
+        if (entityIndex >= entityIdsByIndex.length) {
+            entityIdsByIndex = Arrays.copyOf(entityIdsByIndex, Math.max(entityIndex + 1, entityIdsByIndex.length << 1));
+        }
+        if (entityIdsByIndex[entityIndex] == null) {
+            entityIdsByIndex[entityIndex] = new EntityIds();
+        }
+        entityIdsByIndex[entityIndex].add(id);
+    }
+
+    void remove(int entityIndex, Serializable id) {
+        if (entityIndex < entityIdsByIndex.length && entityIdsByIndex[entityIndex] != null) {
+            entityIdsByIndex[entityIndex].remove(id);
+        }
+    }
+
+    /**
+     * Remove all the couples while keeping the sets of each entity to reuse them in the next transaction
+     */
+    void clear() {
+        for (EntityIds entityIds : entityIdsByIndex) {
+            if (entityIds != null) {
+                entityIds.clear();
+            }
+        }
+    }
+
+    private static boolean isIntegral(Serializable id) {
+        return id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte;
+    }
+
+    private static class EntityIds {
+        private final LongHashSet integralIds = new LongHashSet();
+        private Set<Serializable> otherIds;
+
+        boolean contains(Serializable id) {
+            if (isIntegral(id)) {
+                return integralIds.contains(((Number) id).longValue());
+            }
+            return otherIds != null && otherIds.contains(id);
+        }
+
+        void add(Serializable id) {
+            if (isIntegral(id)) {
+                integralIds.add(((Number) id).longValue());
+                return;
+            }
+            if (otherIds == null) {
+                otherIds = new HashSet<>();
+            }
+            otherIds.add(id);
+        }
+
+        void remove(Serializable id) {
+            if (isIntegral(id)) {
+                integralIds.remove(((Number) id).longValue());
+            } else if (otherIds != null) {
+                otherIds.remove(id);
+            }
+        }
+
+        void clear() {
+            integralIds.clear();
+            if (otherIds != null) {
+                otherIds.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.jpozarycki.interceptor;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs using open addressing with linear probing, so that no boxing nor entry object is
+ * allocated once the table is large enough
+ * <p>
+ * Slots are empty when holding 0, the 0 value itself being tracked apart
+ */
+final class LongHashSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    private int size;
+    private boolean containsZero;
+
+    boolean contains(long key) {
+        if (key == 0) {
+            return containsZero;
+        }
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    boolean add(long key) {
+        if (key == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        if (++size > keys.length >> 1) {
+            resize();
+        }
+        return true;
+    }
+
+    boolean remove(long key) {
+        if (key == 0) {
+            boolean removed = containsZero;
+            containsZero = false;
+            return removed;
+        }
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Shift back the following keys of the probing sequence to fill the gap
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int distanceFromSlot = (next - slot(keys[next])) & mask;
+            if (distanceFromSlot >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove all the values while keeping the table to avoid allocating it again
+     */
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+        containsZero = false;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize() {
+        long[] previousKeys = keys;
+        keys = new long[previousKeys.length << 1];
+        mask = keys.length - 1;
+        for (long key : previousKeys) {
+            if (key != 0) {
+                int slot = slot(key);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.jpozarycki.interceptor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Count the N+1 queries detected per call site, identified by (entity, origin frame, hint), and report one summary
+ * per call site and per window from a background thread so that the request threads never block on logging
+ * <p>
+ * The number of call sites is bounded, occurrences on new call sites beyond the bound are only counted as dropped
+ * <p>
+ * The call sites without occurrence during a whole window are retired, an occurrence recorded on a call site being
+ * retired waiting for the outcome, and being moved to a new call site if it was recorded after the retirement
+ */
+@Slf4j
+class NPlusOneQueriesAggregator implements AutoCloseable {
+    private final ConcurrentMap<NPlusOneQueriesDetection, CallSite> occurrencesByCallSite =
+            new ConcurrentHashMap<>();
+    private final LongAdder droppedOccurrences = new LongAdder();
+    private final Duration window;
+    private final int maxCallSites;
+    private final Consumer<String> reporter;
+    private final ScheduledExecutorService flushExecutor;
+
+    /**
+     * @param window       Window after which the summaries are reported
+     * @param maxCallSites Maximum number of call sites counted in a window
+     * @param reporter     Reporter of the summaries, called from the flushing thread
+     */
+    NPlusOneQueriesAggregator(Duration window, int maxCallSites, Consumer<String> reporter) {
+        this.window = window;
+        this.maxCallSites = maxCallSites;
+        this.reporter = reporter;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "n-plus-one-queries-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushExecutor.scheduleAtFixedRate(
+                this::flush, window.toMillis(), window.toMillis(), TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Count an occurrence of N+1 queries on its call site
+     *
+     * @param detection N+1 queries detected
+     */
+    void record(NPlusOneQueriesDetection detection) {
+        long count = 1;
+        while (count > 0) {
+            CallSite callSite = occurrencesByCallSite.get(detection);
+            if (callSite == null) {
+                if (occurrencesByCallSite.size() >= maxCallSites) {
+                    droppedOccurrences.add(count);
+                    return;
+                }
+                callSite = occurrencesByCallSite.computeIfAbsent(detection, key -> new CallSite());
+            }
+            count = callSite.record(count);
+            if (count > 0) {
+                occurrencesByCallSite.remove(detection, callSite);
+            }
+        }
+    }
+
+    /**
+     * Report a summary for each call site having occurrences in the window
+     * <p>
+     * Call sites without occurrence during a whole window are forgotten to make room for new ones
+     */
+    void flush() {
+        try {
+            for (Map.Entry<NPlusOneQueriesDetection, CallSite> entry : occurrencesByCallSite.entrySet()) {
+                long occurrences = entry.getValue().occurrences.sumThenReset();
+                if (occurrences == 0) {
+                    occurrencesByCallSite.computeIfPresent(
+                            entry.getKey(), (key, callSite) -> callSite.retire() ? null : callSite
+                    );
+                } else {
+                    reporter.accept(entry.getKey().getMessage() +
+                            "    Occurrences: " + occurrences + " in the last " + window + "\n");
+                }
+            }
+
+            long dropped = droppedOccurrences.sumThenReset();
+            if (dropped > 0) {
+                reporter.accept("N+1 queries detected " + dropped + " times on call sites beyond the limit of " +
+                        maxCallSites + " call sites in the last " + window + "\n");
+            }
+        } catch (RuntimeException exception) {
+            log.warn("Failed to report the aggregated N+1 queries", exception);
+        }
+    }
+
+    /**
+     * Report the pending summaries, so that the summaries of the last window are not lost, and stop the flushing
+     * thread
+     */
+    @Override
+    public void close() {
+        flush();
+        flushExecutor.shutdown();
+    }
+
+    /**
+     * Occurrences of a call site in the current window
+     */
+    private static final class CallSite {
+        private static final int ACTIVE = 0;
+        private static final int RETIRING = 1;
+        private static final int RETIRED = 2;
+
+        private final LongAdder occurrences = new LongAdder();
+        private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+        /**
+         * Count occurrences, waiting for a concurrent retirement to decide whether it saw them
+         * <p>
+         * Once the call site is retired, its occurrences are only the ones recorded after the retirement, which were
+         * never reported. They are taken back to be recorded on a new call site
+         *
+         * @param count Number of occurrences
+         * @return Number of occurrences taken back from the retired call site, 0 if the call site is active
+         */
+        private long record(long count) {
+            occurrences.add(count);
+            int current = state.get();
+            while (current == RETIRING) {
+                Thread.yield();
+                current = state.get();
+            }
+            return current == ACTIVE ? 0 : occurrences.sumThenReset();
+        }
+
+        /**
+         * Retire the call site if it still has no occurrence since the last report, the occurrences recorded before
+         * the retirement started being seen by it
+         *
+         * @return Boolean telling whether the call site was retired
+         */
+        private boolean retire() {
+            if (!state.compareAndSet(ACTIVE, RETIRING)) {
+                return state.get() == RETIRED;
+            }
+            if (occurrences.sum() == 0) {
+                state.set(RETIRED);
+                return true;
+            }
+            state.set(ACTIVE);
+            return false;
+        }
+    }
+}
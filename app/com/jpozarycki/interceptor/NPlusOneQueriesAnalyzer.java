@@ -0,0 +1,208 @@
+package com.jpozarycki.interceptor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Run the N+1 queries detections on entities in a background thread, so that the request threads only capture the
+ * call stack of their getEntity calls
+ * <p>
+ * The getEntity calls and the completions of the transactions are queued as compact events in a lock-free queue
+ * written by the request threads and drained by the analyzer thread, which materializes the frames, applies the
+ * detections and reports the N+1 queries detected. The analyzer thread is parked while no event is pending, the request
+ * thread queuing the first pending event unparking it. The events of a unit of work are queued by one thread at a
+ * time, they are therefore analyzed in order against a state of the unit of work kept by the analyzer
+ * <p>
+ * The number of queued events is bounded, events beyond the bound or queued once the analyzer is closed are dropped
+ * and counted in the metrics. The events queued before the analyzer is closed are still analyzed
+ */
+@Slf4j
+class NPlusOneQueriesAnalyzer implements AutoCloseable {
+    private static final int MAX_UNITS_OF_WORK = 10_000;
+    private static final long AWAIT_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final Map<Long, UnitOfWorkState> analysisStates = new LinkedHashMap<Long, UnitOfWorkState>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, UnitOfWorkState> eldest) {
+            return size() > MAX_UNITS_OF_WORK;
+        }
+    };
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+    private final QueryInterceptorMetrics queryInterceptorMetrics;
+    private final int capacity;
+    private final Thread analyzerThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param hibernateQueryInterceptor Interceptor applying the detections, called from the analyzer thread
+     * @param queryInterceptorMetrics   Metrics counting the dropped events
+     * @param capacity                  Maximum number of events waiting for the analysis
+     */
+    NPlusOneQueriesAnalyzer(HibernateQueryInterceptor hibernateQueryInterceptor,
+                            QueryInterceptorMetrics queryInterceptorMetrics, int capacity) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+        this.queryInterceptorMetrics = queryInterceptorMetrics;
+        this.capacity = capacity;
+        this.analyzerThread = new Thread(this::run, "n-plus-one-queries-analyzer");
+        this.analyzerThread.setDaemon(true);
+        this.analyzerThread.start();
+    }
+
+    /**
+     * Queue a getEntity call with the call stack of the current thread, captured without materializing its frames
+     *
+     * @param unitOfWorkId     Id of the unit of work
+     * @param entityName       Name of the entity
+     * @param previouslyLoaded Whether the getEntity was already called for the couple (entity, id)
+     */
+    void getEntity(long unitOfWorkId, String entityName, boolean previouslyLoaded) {
+        offer(new Event(unitOfWorkId, entityName, previouslyLoaded, new CapturedStack()));
+    }
+
+    /**
+     * Queue the completion of the transaction of a unit of work, after which its analysis state is reset
+     *
+     * @param unitOfWorkId Id of the unit of work
+     */
+    void transactionCompleted(long unitOfWorkId) {
+        offer(new Event(unitOfWorkId, null, false, null));
+    }
+
+    /**
+     * Wait for the events queued so far to be analyzed
+     *
+     * @param timeout Maximum time to wait
+     * @return Boolean telling whether the events were analyzed before the timeout
+     */
+    boolean awaitAnalysis(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (pendingEvents.get() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(AWAIT_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the analyzer thread to stop once closed
+     *
+     * @param timeout Maximum time to wait
+     * @return Boolean telling whether the thread stopped before the timeout
+     */
+    boolean awaitTermination(Duration timeout) throws InterruptedException {
+        analyzerThread.join(Math.max(1, timeout.toMillis()));
+        return !analyzerThread.isAlive();
+    }
+
+    /**
+     * Stop the analyzer thread once the events already queued are analyzed
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(analyzerThread);
+    }
+
+    private void offer(Event event) {
+        if (!running) {
+            queryInterceptorMetrics.analysisDropped();
+            return;
+        }
+        int pending = pendingEvents.incrementAndGet();
+        if (pending > capacity) {
+            pendingEvents.decrementAndGet();
+            queryInterceptorMetrics.analysisDropped();
+            return;
+        }
+        events.offer(event);
+        if (pending == 1) {
+            LockSupport.unpark(analyzerThread);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            Event event = events.poll();
+            if (event != null) {
+                analyzeQuietly(event);
+            } else if (pendingEvents.get() == 0) {
+                // Unparked by the request thread queuing the next pending event, or by close
+                LockSupport.park(this);
+            } else {
+                // An event is counted as pending but not queued yet
+                Thread.yield();
+            }
+        }
+        for (Event event = events.poll(); event != null; event = events.poll()) {
+            analyzeQuietly(event);
+        }
+    }
+
+    private void analyzeQuietly(Event event) {
+        try {
+            analyze(event);
+        } catch (RuntimeException exception) {
+            log.warn("Failed to analyze the N+1 queries of " + event.entityName, exception);
+        } finally {
+            pendingEvents.decrementAndGet();
+        }
+    }
+
+    private void analyze(Event event) {
+        if (event.entityName == null) {
+            UnitOfWorkState analysisState = analysisStates.remove(event.unitOfWorkId);
+            if (analysisState != null) {
+                hibernateQueryInterceptor.transactionAnalyzed(analysisState);
+            }
+            return;
+        }
+
+        UnitOfWorkState analysisState = analysisStates.computeIfAbsent(
+                event.unitOfWorkId, unitOfWorkId -> new UnitOfWorkState(null)
+        );
+        hibernateQueryInterceptor.analyzeGetEntity(
+                analysisState,
+                event.entityName,
+                event.previouslyLoaded,
+                new CallStack(event.entityName, event.stack.getStackTrace())
+        );
+    }
+
+    /**
+     * getEntity call, or completion of a transaction when the entity name is null
+     */
+    private static final class Event {
+        private final long unitOfWorkId;
+        private final String entityName;
+        private final boolean previouslyLoaded;
+        private final CapturedStack stack;
+
+        private Event(long unitOfWorkId, String entityName, boolean previouslyLoaded, CapturedStack stack) {
+            this.unitOfWorkId = unitOfWorkId;
+            this.entityName = entityName;
+            this.previouslyLoaded = previouslyLoaded;
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * Call stack filled in by the JVM on creation, its frames being materialized only by {@link #getStackTrace()}
+     */
+    private static final class CapturedStack extends Throwable {
+        private CapturedStack() {
+            super(null, null, false, true);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.jpozarycki.interceptor;
+
+import lombok.Value;
+
+/**
+ * N+1 queries detected on an entity or a statement, identified by the entity or the statement fingerprint, the origin
+ * frame in the client code and the hint
+ */
+@Value
+class NPlusOneQueriesDetection {
+    enum Hint {
+        MISSING_EAGER_FETCHING,
+        MISSING_LAZY_FETCHING,
+        REPEATED_STATEMENT,
+        CARTESIAN_PRODUCT
+    }
+
+    /**
+     * Name of the entity, null for the N+1 queries detected on a statement, the root entity of the query for an
+     * over-fetching statement
+     */
+    String entityName;
+    /**
+     * Fingerprint of the statement, null for the N+1 queries detected on an entity
+     */
+    String statement;
+    /**
+     * Frame of the client code at the origin of the N+1 queries, null if it was not found
+     */
+    StackTraceElement origin;
+    Hint hint;
+
+    static NPlusOneQueriesDetection onEntity(String entityName, StackTraceElement origin, Hint hint) {
+        return new NPlusOneQueriesDetection(entityName, null, origin, hint);
+    }
+
+    static NPlusOneQueriesDetection onStatement(String statement, StackTraceElement origin) {
+        return new NPlusOneQueriesDetection(null, statement, origin, Hint.REPEATED_STATEMENT);
+    }
+
+    static NPlusOneQueriesDetection onOverFetchingStatement(String entityName, String statement,
+                                                           StackTraceElement origin) {
+        return new NPlusOneQueriesDetection(entityName, statement, origin, Hint.CARTESIAN_PRODUCT);
+    }
+
+    /**
+     * Build the error message for the N+1 queries detected
+     */
+    String getMessage() {
+        String errorMessage;
+        switch (hint) {
+            case MISSING_EAGER_FETCHING:
+                errorMessage = "N+1 queries detected on a getter of the entity " + entityName;
+                break;
+            case MISSING_LAZY_FETCHING:
+                errorMessage = "N+1 queries detected on a query for the entity " + entityName;
+                break;
+            case CARTESIAN_PRODUCT:
+                errorMessage = "Over-fetching detected on a query for the entity " + entityName;
+                break;
+            default:
+                errorMessage = "N+1 queries detected on a statement repeated in the transaction";
+        }
+
+        if (origin != null) {
+            errorMessage += "\n    at " + origin.toString();
+        }
+
+        switch (hint) {
+            case MISSING_EAGER_FETCHING:
+                return errorMessage + "\n    Hint: Missing Eager fetching configuration on the query that fetched " +
+                        "the object of type " + entityName + "\n";
+            case MISSING_LAZY_FETCHING:
+                return errorMessage + "\n    Hint: Missing Lazy fetching configuration on a field of one of the " +
+                        "entities fetched in the query\n";
+            case CARTESIAN_PRODUCT:
+                return errorMessage + "\n    Statement: " + statement +
+                        "\n    Hint: Cartesian product of several collections fetched with a join, split the query " +
+                        "in one query per collection, or fetch the collections with @BatchSize or " +
+                        "@Fetch(FetchMode.SUBSELECT)\n";
+            default:
+                return errorMessage + "\n    Statement: " + statement +
+                        "\n    Hint: Fetch the rows of the repeated statement in a single query with a join fetch " +
+                        "or an IN clause\n";
+        }
+    }
+}
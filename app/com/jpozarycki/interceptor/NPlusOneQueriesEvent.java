@@ -0,0 +1,48 @@
+package com.jpozarycki.interceptor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of N+1 queries detected, committed on the thread reporting the detection, i.e. the
+ * analyzer thread with the asynchronous analysis
+ */
+@Name("com.jpozarycki.interceptor.NPlusOneQueries")
+@Label("N+1 Queries Detected")
+@Category({"Hibernate", "Query Interceptor"})
+@Description("N+1 queries detected on an entity or a statement")
+@StackTrace(false)
+final class NPlusOneQueriesEvent extends jdk.jfr.Event {
+    @Label("Entity")
+    String entityName;
+
+    @Label("Statement")
+    @Description("Fingerprint of the statement, for the N+1 queries detected on a statement")
+    String statement;
+
+    @Label("Hint")
+    String hint;
+
+    @Label("Origin")
+    @Description("Frame of the client code at the origin of the N+1 queries")
+    String origin;
+
+    /**
+     * Commit the event of a detection if the event is enabled in a running recording
+     *
+     * @param detection N+1 queries detected
+     */
+    static void commit(NPlusOneQueriesDetection detection) {
+        NPlusOneQueriesEvent event = new NPlusOneQueriesEvent();
+        if (event.shouldCommit()) {
+            event.entityName = detection.getEntityName();
+            event.statement = detection.getStatement();
+            event.hint = detection.getHint().name();
+            event.origin = detection.getOrigin() == null ? null : detection.getOrigin().toString();
+            event.commit();
+        }
+    }
+}
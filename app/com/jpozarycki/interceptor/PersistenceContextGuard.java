@@ -0,0 +1,142 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.exceptions.PersistenceContextTooLargeException;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties.ErrorLevel;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report the sessions managing too many entities and the flushes taking too long, every flush dirty-checking every
+ * entity managed by the session, following the error level
+ * <p>
+ * The entities managed are counted as they are loaded, and at the start of each flush. The count of the loaded
+ * entities is reset after each transaction, and kept accurate by the evictions notified to the interceptor and by the
+ * persistence context of the session bound to the interceptor, if any
+ * <p>
+ * A flush is timed from preFlush to postFlush, Hibernate skipping postFlush for the automatic flushes having nothing
+ * to write
+ */
+@Slf4j
+class PersistenceContextGuard {
+    private static final String HINT = "    Hint: Load the entities only read with " +
+            "Session.setDefaultReadOnly(true) or Query.setReadOnly(true), or flush and clear the session every few " +
+            "hundred entities, so that each flush does not dirty-check every entity managed by the session\n";
+
+    private final ErrorLevel errorLevel;
+    private final int maxManagedEntities;
+    private final long maxFlushNanos;
+
+    PersistenceContextGuard(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties) {
+        this.errorLevel = hibernateQueryInterceptorProperties.getErrorLevel();
+        this.maxManagedEntities = hibernateQueryInterceptorProperties.getMaxManagedEntities();
+        Duration maxFlushDuration = hibernateQueryInterceptorProperties.getMaxFlushDuration();
+        this.maxFlushNanos = maxFlushDuration.isNegative() ? 0 : maxFlushDuration.toNanos();
+    }
+
+    /**
+     * Count an entity loaded, reporting the persistence context once per transaction when it grows above the limit
+     *
+     * @param usage   Usage of the persistence context of the unit of work
+     * @param session Session bound to the interceptor, null if none
+     */
+    void entityLoaded(PersistenceContextUsage usage, SessionImplementor session) {
+        int loadedEntities = usage.entityLoaded();
+        if (maxManagedEntities <= 0 || loadedEntities <= maxManagedEntities) {
+            return;
+        }
+        if (session != null) {
+            int managedEntities = session.getPersistenceContext().getNumberOfManagedEntities();
+            usage.setLoadedEntities(managedEntities);
+            if (managedEntities <= maxManagedEntities) {
+                return;
+            }
+            loadedEntities = managedEntities;
+        }
+        checkSize(usage, loadedEntities);
+    }
+
+    /**
+     * Count the entities managed at the start of a flush, reporting the persistence context once per transaction
+     * when above the limit, and start timing the flush
+     *
+     * @param usage    Usage of the persistence context of the unit of work
+     * @param session  Session bound to the interceptor, null if none
+     * @param entities Entities managed by the session, iterated only when no session is bound
+     */
+    void flushStarted(PersistenceContextUsage usage, SessionImplementor session, Iterator<?> entities) {
+        if (maxManagedEntities > 0) {
+            int managedEntities = count(session, entities);
+            usage.setLoadedEntities(managedEntities);
+            checkSize(usage, managedEntities);
+        }
+        usage.flushStarted();
+    }
+
+    /**
+     * Report the flush if it took longer than the limit
+     *
+     * @param usage    Usage of the persistence context of the unit of work
+     * @param session  Session bound to the interceptor, null if none
+     * @param entities Entities managed by the session, iterated only when no session is bound
+     */
+    void flushCompleted(PersistenceContextUsage usage, SessionImplementor session, Iterator<?> entities) {
+        long flushNanos = usage.flushCompleted();
+        if (maxFlushNanos <= 0 || flushNanos <= maxFlushNanos) {
+            return;
+        }
+        report("Slow flush detected, " + TimeUnit.NANOSECONDS.toMillis(flushNanos) + "ms above the limit of " +
+                TimeUnit.NANOSECONDS.toMillis(maxFlushNanos) + "ms to dirty-check " + count(session, entities) +
+                " managed entities, of which " + usage.getDirtyEntities() + " were dirty");
+    }
+
+    private void checkSize(PersistenceContextUsage usage, int managedEntities) {
+        if (managedEntities > maxManagedEntities && usage.sizeReported()) {
+            report("Large persistence context detected, " + managedEntities + " entities managed by the session " +
+                    "above the limit of " + maxManagedEntities);
+        }
+    }
+
+    /**
+     * Count the entities managed by the session, from its persistence context when bound, the flushes otherwise
+     * iterating over every entity
+     */
+    private static int count(SessionImplementor session, Iterator<?> entities) {
+        if (session != null) {
+            return session.getPersistenceContext().getNumberOfManagedEntities();
+        }
+        int count = 0;
+        while (entities.hasNext()) {
+            entities.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Log the error message or throw an exception depending on the configured error level
+     *
+     * @param detection Description of the check failed
+     */
+    private void report(String detection) {
+        String errorMessage = detection + CallStack.getApplicationFrame()
+                .map(origin -> "\n    at " + origin + "\n")
+                .orElse("\n") + HINT;
+        switch (errorLevel) {
+            case INFO:
+                log.info(errorMessage);
+                break;
+            case WARN:
+                log.warn(errorMessage);
+                break;
+            case ERROR:
+                log.error(errorMessage);
+                break;
+            default:
+                throw new PersistenceContextTooLargeException(errorMessage);
+        }
+    }
+}
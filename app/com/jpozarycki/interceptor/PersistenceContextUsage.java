@@ -0,0 +1,68 @@
+package com.jpozarycki.interceptor;
+
+/**
+ * Usage of the persistence context of a unit of work, checked by the {@link PersistenceContextGuard}
+ */
+class PersistenceContextUsage {
+    private int loadedEntities;
+    private long flushStart = -1;
+    private int dirtyEntities;
+    private boolean sizeReported;
+
+    int entityLoaded() {
+        return ++loadedEntities;
+    }
+
+    void entityEvicted() {
+        if (loadedEntities > 0) {
+            loadedEntities--;
+        }
+    }
+
+    void setLoadedEntities(int loadedEntities) {
+        this.loadedEntities = loadedEntities;
+    }
+
+    void flushStarted() {
+        flushStart = System.nanoTime();
+        dirtyEntities = 0;
+    }
+
+    void entityFlushedDirty() {
+        dirtyEntities++;
+    }
+
+    int getDirtyEntities() {
+        return dirtyEntities;
+    }
+
+    /**
+     * @return Nanoseconds since the flush started, -1 if no flush was started
+     */
+    long flushCompleted() {
+        if (flushStart < 0) {
+            return -1;
+        }
+        long nanos = System.nanoTime() - flushStart;
+        flushStart = -1;
+        return nanos;
+    }
+
+    /**
+     * Mark the size of the persistence context as reported
+     *
+     * @return Boolean telling whether it was not reported yet in the transaction
+     */
+    boolean sizeReported() {
+        boolean firstReport = !sizeReported;
+        sizeReported = true;
+        return firstReport;
+    }
+
+    void reset() {
+        loadedEntities = 0;
+        flushStart = -1;
+        dirtyEntities = 0;
+        sizeReported = false;
+    }
+}
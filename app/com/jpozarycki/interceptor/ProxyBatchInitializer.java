@@ -0,0 +1,122 @@
+package com.jpozarycki.interceptor;
+
+import org.hibernate.MultiIdentifierLoadAccess;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Initialize in a single IN-query the proxy being initialized along with its siblings, i.e. the other uninitialized
+ * proxies of the same entity referenced by the entities of the persistence context
+ * <p>
+ * This is batch fetching driven by the N+1 queries detection. The loading runs getEntity again for each entity of
+ * the batch, the session is flagged meanwhile so that the interceptor skips these calls
+ * <p>
+ * The persistence context is scanned once for all the uninitialized proxies of the entity, the following batches
+ * being taken from the proxies found. It is only scanned again when a proxy missed by the last scan is initialized,
+ * so that initializing N proxies does not scan the persistence context N / batch size times
+ */
+class ProxyBatchInitializer {
+    private final HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties;
+
+    ProxyBatchInitializer(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties) {
+        this.hibernateQueryInterceptorProperties = hibernateQueryInterceptorProperties;
+    }
+
+    /**
+     * Load the entity being initialized with its sibling proxies, up to the configured batch size
+     *
+     * @param boundSession Session loading the entity
+     * @param entityName   Name of the entity
+     * @param id           Id of the entity being initialized
+     * @return Entity being initialized, null if it has no sibling proxy to load with
+     */
+    Object initialize(BoundSession boundSession, String entityName, Serializable id) {
+        SessionImplementor session = boundSession.getSession();
+        Set<Serializable> ids = new LinkedHashSet<>();
+        ids.add(id);
+        collectSiblingIds(boundSession, entityName, ids);
+        if (ids.size() == 1) {
+            return null;
+        }
+
+        List<?> entities;
+        boundSession.setBatchInitializing(true);
+        try {
+            MultiIdentifierLoadAccess<?> multiIdentifierLoadAccess = session.byMultipleIds(entityName);
+            entities = multiIdentifierLoadAccess.multiLoad(new ArrayList<>(ids));
+        } finally {
+            boundSession.setBatchInitializing(false);
+        }
+        return entities.isEmpty() ? null : entities.get(0);
+    }
+
+    /**
+     * Take the sibling proxies still uninitialized from the proxies found by the last scan, scanning the persistence
+     * context again if the proxy being initialized was not found by the last scan
+     *
+     * @param boundSession Session loading the entity
+     * @param entityName   Name of the entity
+     * @param ids          Ids of the proxies to initialize, to which the sibling ids are added
+     */
+    private void collectSiblingIds(BoundSession boundSession, String entityName, Set<Serializable> ids) {
+        SessionImplementor session = boundSession.getSession();
+        Set<Serializable> uninitializedProxyIds = boundSession.getUninitializedProxyIds(entityName);
+        Serializable id = ids.iterator().next();
+        if (!uninitializedProxyIds.remove(id)) {
+            uninitializedProxyIds.clear();
+            scanUninitializedProxyIds(session, entityName, uninitializedProxyIds);
+            uninitializedProxyIds.remove(id);
+        }
+
+        int batchSize = hibernateQueryInterceptorProperties.getAutoBatchInitializationSize();
+        EntityPersister entityPersister = session.getFactory().getMetamodel().entityPersister(entityName);
+        Iterator<Serializable> iterator = uninitializedProxyIds.iterator();
+        while (ids.size() < batchSize && iterator.hasNext()) {
+            Serializable siblingId = iterator.next();
+            iterator.remove();
+            // The proxy may have been initialized or evicted since the scan
+            Object proxy = session.getPersistenceContext().getProxy(
+                    session.generateEntityKey(siblingId, entityPersister)
+            );
+            if (
+                    proxy instanceof HibernateProxy
+                            && ((HibernateProxy) proxy).getHibernateLazyInitializer().isUninitialized()
+            ) {
+                ids.add(siblingId);
+            }
+        }
+    }
+
+    /**
+     * Scan the property values of the entities of the persistence context for uninitialized proxies of the entity
+     *
+     * @param session    Session loading the entity
+     * @param entityName Name of the entity
+     * @param ids        Ids to which the ids of the proxies found are added
+     */
+    private static void scanUninitializedProxyIds(SessionImplementor session, String entityName,
+                                                  Set<Serializable> ids) {
+        for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContext().reentrantSafeEntityEntries()) {
+            Object[] values = entry.getValue().getPersister().getPropertyValues(entry.getKey());
+            for (Object value : values) {
+                if (value instanceof HibernateProxy) {
+                    LazyInitializer lazyInitializer = ((HibernateProxy) value).getHibernateLazyInitializer();
+                    if (lazyInitializer.isUninitialized() && entityName.equals(lazyInitializer.getEntityName())) {
+                        ids.add(lazyInitializer.getIdentifier());
+                    }
+                }
+            }
+        }
+    }
+}
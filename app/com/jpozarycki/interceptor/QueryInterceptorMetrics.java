@@ -0,0 +1,151 @@
+package com.jpozarycki.interceptor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export the query metrics and the N+1 queries detected by the {@link HibernateQueryInterceptor} to a Micrometer
+ * {@link MeterRegistry}, e.g. the Prometheus registry served on /metrics
+ * <p>
+ * Meters:
+ * - hibernate.query.statements: statements executed per request by the actions annotated with a query budget
+ * <p>
+ * - hibernate.query.n-plus-one: N+1 queries detected, tagged by entity and hint
+ * <p>
+ * - hibernate.session.open: time the sessions opened by the interceptor stay open
+ * <p>
+ * - hibernate.query.interceptor.callback: time spent in the interceptor callbacks, tagged by callback
+ * <p>
+ * - hibernate.query.second-level-cache: proxies of the entities cached in the second-level cache initialized from
+ * the cache or not, tagged by entity and result, hit or miss
+ * <p>
+ * - hibernate.entity-cache: size, hits, misses and evictions of the entity cache
+ * <p>
+ * - hibernate.query.n-plus-one.analysis.dropped: getEntity calls dropped by the background analyzer of the N+1
+ * queries, its queue being full
+ */
+@Singleton
+public class QueryInterceptorMetrics {
+    private static final String NO_ENTITY = "none";
+
+    enum Callback {
+        GET_ENTITY("getEntity"),
+        PREPARE_STATEMENT("onPrepareStatement"),
+        LOAD("onLoad"),
+        STATEMENT_CLOSE("statementClosed"),
+        TRANSACTION_COMPLETION("afterTransactionCompletion");
+
+        private final String tag;
+
+        Callback(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary statementsPerRequest;
+    private final Timer sessionOpenTime;
+    private final Timer[] callbackTimes = new Timer[Callback.values().length];
+
+    @Inject
+    public QueryInterceptorMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.statementsPerRequest = DistributionSummary.builder("hibernate.query.statements")
+                .description("Statements executed per request")
+                .baseUnit("statements")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.sessionOpenTime = Timer.builder("hibernate.session.open")
+                .description("Time the sessions stay open")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        for (Callback callback : Callback.values()) {
+            callbackTimes[callback.ordinal()] = Timer.builder("hibernate.query.interceptor.callback")
+                    .description("Time spent in the interceptor callbacks")
+                    .tag("callback", callback.tag)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Metrics recording nothing, used by the interceptors created without a meter registry
+     */
+    private QueryInterceptorMetrics() {
+        this.meterRegistry = null;
+        this.statementsPerRequest = null;
+        this.sessionOpenTime = null;
+    }
+
+    static QueryInterceptorMetrics disabled() {
+        return new QueryInterceptorMetrics();
+    }
+
+    /**
+     * Record the statements executed by a request
+     *
+     * @param queryMetrics Query metrics of the request
+     */
+    public void requestCompleted(QueryMetrics queryMetrics) {
+        if (meterRegistry != null) {
+            statementsPerRequest.record(queryMetrics.getStatementCount());
+        }
+    }
+
+    void detected(NPlusOneQueriesDetection detection) {
+        if (meterRegistry != null) {
+            meterRegistry.counter(
+                    "hibernate.query.n-plus-one",
+                    "entity", detection.getEntityName() == null ? NO_ENTITY : detection.getEntityName(),
+                    "hint", detection.getHint().name()
+            ).increment();
+        }
+    }
+
+    void secondLevelCacheRequested(String entityName, boolean hit) {
+        if (meterRegistry != null) {
+            meterRegistry.counter(
+                    "hibernate.query.second-level-cache",
+                    "entity", entityName,
+                    "result", hit ? "hit" : "miss"
+            ).increment();
+        }
+    }
+
+    void monitor(Cache<?, ?> cache, String cacheName) {
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, cacheName);
+        }
+    }
+
+    void analysisDropped() {
+        if (meterRegistry != null) {
+            meterRegistry.counter("hibernate.query.n-plus-one.analysis.dropped").increment();
+        }
+    }
+
+    void sessionClosed(long openNanos) {
+        if (meterRegistry != null) {
+            sessionOpenTime.record(openNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return Start of the callback to pass to {@link #callbackCompleted(Callback, long)}
+     */
+    long callbackStarted() {
+        return meterRegistry == null ? 0 : System.nanoTime();
+    }
+
+    void callbackCompleted(Callback callback, long start) {
+        if (meterRegistry != null) {
+            callbackTimes[callback.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.jpozarycki.interceptor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Query metrics of a unit of work: statements prepared by type, cumulative JDBC execution time and entities loaded
+ * <p>
+ * The sessions of a unit of work may record their metrics concurrently, e.g. when run on a database executor
+ */
+public class QueryMetrics {
+    public enum StatementType {
+        SELECT,
+        INSERT,
+        UPDATE,
+        DELETE,
+        OTHER;
+
+        /**
+         * Get the type of a statement from its first keyword, skipping the leading blanks and comments
+         *
+         * @param sql Statement to be executed
+         * @return Type of the statement
+         */
+        public static StatementType of(String sql) {
+            int start = 0;
+            while (start < sql.length()) {
+                char character = sql.charAt(start);
+                if (Character.isWhitespace(character) || character == '(') {
+                    start++;
+                } else if (sql.startsWith("/*", start)) {
+                    int end = sql.indexOf("*/", start + 2);
+                    start = end < 0 ? sql.length() : end + 2;
+                } else if (sql.startsWith("--", start)) {
+                    int end = sql.indexOf('\n', start + 2);
+                    start = end < 0 ? sql.length() : end + 1;
+                } else {
+                    break;
+                }
+            }
+
+            if (sql.regionMatches(true, start, "select", 0, 6) || sql.regionMatches(true, start, "with", 0, 4)) {
+                return SELECT;
+            } else if (sql.regionMatches(true, start, "insert", 0, 6)) {
+                return INSERT;
+            } else if (sql.regionMatches(true, start, "update", 0, 6)) {
+                return UPDATE;
+            } else if (sql.regionMatches(true, start, "delete", 0, 6)) {
+                return DELETE;
+            }
+            return OTHER;
+        }
+    }
+
+    private final LongAdder[] statementCounts = new LongAdder[StatementType.values().length];
+    private final LongAdder statementCount = new LongAdder();
+    private final LongAdder jdbcExecutionNanos = new LongAdder();
+    private final LongAdder entitiesLoaded = new LongAdder();
+
+    public QueryMetrics() {
+        for (int i = 0; i < statementCounts.length; i++) {
+            statementCounts[i] = new LongAdder();
+        }
+    }
+
+    void statementPrepared(String sql) {
+        statementCount.increment();
+        statementCounts[StatementType.of(sql).ordinal()].increment();
+    }
+
+    void jdbcExecuted(long nanos) {
+        jdbcExecutionNanos.add(nanos);
+    }
+
+    void entityLoaded() {
+        entitiesLoaded.increment();
+    }
+
+    /**
+     * Get the number of statements prepared in the unit of work
+     * <p>
+     * A JDBC batch prepares its statement once, so it counts as a single statement, i.e. a single round trip
+     */
+    public long getStatementCount() {
+        return statementCount.sum();
+    }
+
+    /**
+     * Get the number of statements of a type prepared in the unit of work
+     *
+     * @param statementType Type of the statements
+     */
+    public long getStatementCount(StatementType statementType) {
+        return statementCounts[statementType.ordinal()].sum();
+    }
+
+    /**
+     * Get the cumulative execution time of the JDBC statements and batches of the unit of work
+     *
+     * @param timeUnit Unit of the returned time
+     */
+    public long getJdbcExecutionTime(TimeUnit timeUnit) {
+        return timeUnit.convert(jdbcExecutionNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the number of entities loaded from the JDBC result sets in the unit of work
+     */
+    public long getEntitiesLoaded() {
+        return entitiesLoaded.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics{" +
+                "statements=" + getStatementCount() +
+                ", selects=" + getStatementCount(StatementType.SELECT) +
+                ", inserts=" + getStatementCount(StatementType.INSERT) +
+                ", updates=" + getStatementCount(StatementType.UPDATE) +
+                ", deletes=" + getStatementCount(StatementType.DELETE) +
+                ", jdbcExecutionMillis=" + getJdbcExecutionTime(TimeUnit.MILLISECONDS) +
+                ", entitiesLoaded=" + getEntitiesLoaded() +
+                '}';
+    }
+}
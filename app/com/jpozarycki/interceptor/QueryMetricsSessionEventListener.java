@@ -0,0 +1,108 @@
+package com.jpozarycki.interceptor;
+
+import org.hibernate.BaseSessionEventListener;
+
+import java.util.function.Supplier;
+
+/**
+ * Session event listener timing the JDBC statements and batches executed by a session into the query metrics
+ * started with the {@link HibernateQueryInterceptor}
+ * <p>
+ * The session is also committed as a {@link SessionEvent} to the Java Flight Recorder once closed, if enabled in a
+ * running recording
+ * <p>
+ * Registered by {@link HibernateQueryInterceptor#openSession(org.hibernate.SessionFactory)} on the sessions it opens,
+ * otherwise to be registered on each session, e.g.
+ * {@code sessionFactory.withOptions().interceptor(interceptor).eventListeners(new
+ * QueryMetricsSessionEventListener(interceptor)).openSession()}
+ */
+public class QueryMetricsSessionEventListener extends BaseSessionEventListener {
+    private final transient Supplier<QueryMetrics> queryMetricsSupplier;
+    private final transient Supplier<SqlTrace.Statement> tracedStatementSupplier;
+    private final transient QueryInterceptorMetrics queryInterceptorMetrics;
+    private final long sessionStart = System.nanoTime();
+    private final transient SessionEvent sessionEvent = new SessionEvent();
+    private long jdbcExecutionStart = -1;
+    private long statementCount;
+
+    /**
+     * @param hibernateQueryInterceptor Interceptor whose query metrics for the considered thread are recorded
+     */
+    public QueryMetricsSessionEventListener(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        this(
+                hibernateQueryInterceptor::getQueryMetrics,
+                hibernateQueryInterceptor::getTracedStatement,
+                hibernateQueryInterceptor.getQueryInterceptorMetrics()
+        );
+    }
+
+    /**
+     * @param queryMetricsSupplier Supplier of the query metrics recorded, returning null to record none
+     */
+    public QueryMetricsSessionEventListener(Supplier<QueryMetrics> queryMetricsSupplier) {
+        this(queryMetricsSupplier, () -> null, QueryInterceptorMetrics.disabled());
+    }
+
+    /**
+     * @param queryMetricsSupplier    Supplier of the query metrics recorded, returning null to record none
+     * @param tracedStatementSupplier Supplier of the statement of the SQL trace being executed, returning null if none
+     * @param queryInterceptorMetrics Metrics in which the time the session stays open is recorded
+     */
+    QueryMetricsSessionEventListener(Supplier<QueryMetrics> queryMetricsSupplier,
+                                     Supplier<SqlTrace.Statement> tracedStatementSupplier,
+                                     QueryInterceptorMetrics queryInterceptorMetrics) {
+        this.queryMetricsSupplier = queryMetricsSupplier;
+        this.tracedStatementSupplier = tracedStatementSupplier;
+        this.queryInterceptorMetrics = queryInterceptorMetrics;
+        this.sessionEvent.begin();
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        jdbcExecutionStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        jdbcExecuted();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        jdbcExecutionStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        jdbcExecuted();
+    }
+
+    @Override
+    public void end() {
+        queryInterceptorMetrics.sessionClosed(System.nanoTime() - sessionStart);
+        sessionEvent.end();
+        if (sessionEvent.shouldCommit()) {
+            sessionEvent.statementCount = statementCount;
+            sessionEvent.commit();
+        }
+    }
+
+    private void jdbcExecuted() {
+        if (jdbcExecutionStart < 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - jdbcExecutionStart;
+        jdbcExecutionStart = -1;
+        statementCount++;
+
+        QueryMetrics queryMetrics = queryMetricsSupplier.get();
+        if (queryMetrics != null) {
+            queryMetrics.jdbcExecuted(nanos);
+        }
+
+        SqlTrace.Statement tracedStatement = tracedStatementSupplier.get();
+        if (tracedStatement != null) {
+            tracedStatement.executed(nanos);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.jpozarycki.interceptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Number of executions of each statement fingerprint in the current transaction
+ */
+class RepeatedStatements {
+    private final Map<String, int[]> executionCounts = new HashMap<>();
+
+    /**
+     * Count an execution of the statement
+     *
+     * @param fingerprint Fingerprint of the statement
+     * @return Number of executions of the statement in the transaction
+     */
+    int executed(String fingerprint) {
+        return ++executionCounts.computeIfAbsent(fingerprint, key -> new int[1])[0];
+    }
+
+    void clear() {
+        executionCounts.clear();
+    }
+}
@@ -0,0 +1,228 @@
+package com.jpozarycki.interceptor;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Connection provider counting the rows read by the statements prepared with the over-fetch detection of the
+ * {@link HibernateQueryInterceptor}, the interceptor callbacks seeing the entities hydrated but not the JDBC rows
+ * <p>
+ * The connections of the delegate provider, configured with {@link #DELEGATE_CONNECTION_PROVIDER} and defaulting to
+ * the Hibernate built-in provider, are wrapped in dynamic proxies. Only the statements handed over by the interceptor
+ * have their result sets wrapped, the other statements being returned as they are, and the first column of each row is
+ * read along with it
+ * <p>
+ * Enabled with hibernate.connection.provider_class set to the name of this class
+ */
+public class RowCountingConnectionProvider
+        implements ConnectionProvider, Configurable, ServiceRegistryAwareService, Stoppable {
+    /**
+     * Setting of the class name of the delegate connection provider
+     */
+    public static final String DELEGATE_CONNECTION_PROVIDER = "hibernate.connection.row_counting.delegate";
+
+    private ConnectionProvider delegate;
+    private ServiceRegistryImplementor serviceRegistry;
+
+    /**
+     * Create a provider delegating to the connection provider configured
+     */
+    public RowCountingConnectionProvider() {
+    }
+
+    /**
+     * @param delegate Connection provider of the connections wrapped
+     */
+    public RowCountingConnectionProvider(ConnectionProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+        // Injected before the configuration, which creates the delegate
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    public void configure(Map configurationValues) {
+        if (delegate == null) {
+            Object delegateClassName = configurationValues.get(DELEGATE_CONNECTION_PROVIDER);
+            delegate = newDelegate(
+                    delegateClassName == null
+                            ? DriverManagerConnectionProviderImpl.class.getName()
+                            : delegateClassName.toString()
+            );
+        }
+        if (delegate instanceof ServiceRegistryAwareService && serviceRegistry != null) {
+            ((ServiceRegistryAwareService) delegate).injectServices(serviceRegistry);
+        }
+        if (delegate instanceof Configurable) {
+            ((Configurable) delegate).configure(configurationValues);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (delegate instanceof Stoppable) {
+            ((Stoppable) delegate).stop();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = delegate.getConnection();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ConnectionHandler(connection)
+        );
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        delegate.closeConnection(
+                Proxy.isProxyClass(connection.getClass())
+                        && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler
+                        ? ((ConnectionHandler) Proxy.getInvocationHandler(connection)).connection
+                        : connection
+        );
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return delegate.supportsAggressiveRelease();
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isInstance(this) || delegate.isUnwrappableAs(unwrapType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this)) {
+            return (T) this;
+        }
+        if (delegate.isUnwrappableAs(unwrapType)) {
+            return delegate.unwrap(unwrapType);
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    private static ConnectionProvider newDelegate(String className) {
+        try {
+            return (ConnectionProvider) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException exception) {
+            throw new HibernateException("Could not create the delegate connection provider " + className, exception);
+        }
+    }
+
+    /**
+     * Invoke a JDBC method on the wrapped object, the proxies being equal only to themselves
+     */
+    private static Object invoke(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException exception) {
+                    throw exception.getCause();
+                }
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        private ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = RowCountingConnectionProvider.invoke(proxy, connection, method, args);
+            if (!(result instanceof PreparedStatement) || args == null || !(args[0] instanceof String)) {
+                return result;
+            }
+            FetchedStatement fetchedStatement = FetchedStatement.handOver((String) args[0]);
+            if (fetchedStatement == null) {
+                return result;
+            }
+            Class<?> statementInterface = result instanceof CallableStatement
+                    ? CallableStatement.class
+                    : PreparedStatement.class;
+            return Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{statementInterface},
+                    new StatementHandler((Statement) result, fetchedStatement)
+            );
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final FetchedStatement fetchedStatement;
+
+        private StatementHandler(Statement statement, FetchedStatement fetchedStatement) {
+            this.statement = statement;
+            this.fetchedStatement = fetchedStatement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = RowCountingConnectionProvider.invoke(proxy, statement, method, args);
+            if ("close".equals(method.getName())) {
+                fetchedStatement.closed();
+            } else if (result instanceof ResultSet && !"getGeneratedKeys".equals(method.getName())) {
+                return Proxy.newProxyInstance(
+                        Connection.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class},
+                        new ResultSetHandler((ResultSet) result, fetchedStatement)
+                );
+            }
+            return result;
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final FetchedStatement fetchedStatement;
+
+        private ResultSetHandler(ResultSet resultSet, FetchedStatement fetchedStatement) {
+            this.resultSet = resultSet;
+            this.fetchedStatement = fetchedStatement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = RowCountingConnectionProvider.invoke(proxy, resultSet, method, args);
+            if (result == Boolean.TRUE && "next".equals(method.getName())) {
+                fetchedStatement.rowRead(resultSet.getObject(1));
+            }
+            return result;
+        }
+    }
+}
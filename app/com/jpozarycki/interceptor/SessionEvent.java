@@ -0,0 +1,22 @@
+package com.jpozarycki.interceptor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of a session registering the {@link QueryMetricsSessionEventListener}, lasting from the
+ * opening to the closing of the session
+ */
+@Name("com.jpozarycki.interceptor.Session")
+@Label("Hibernate Session")
+@Category({"Hibernate", "Query Interceptor"})
+@Description("Session from its opening to its closing")
+@StackTrace(false)
+final class SessionEvent extends jdk.jfr.Event {
+    @Label("Statement Count")
+    @Description("JDBC statements and batches executed by the session")
+    long statementCount;
+}
@@ -0,0 +1,105 @@
+package com.jpozarycki.interceptor;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+/**
+ * Interceptor of a single session, detecting the N+1 queries and recording the query metrics like the
+ * {@link HibernateQueryInterceptor} that created it, with the state of the session kept in its own fields
+ * <p>
+ * No thread-local is involved, so the state follows the session when its unit of work moves from a thread to another
+ * and is released along with the session
+ */
+public class SessionQueryInterceptor extends EmptyInterceptor implements StatementInspector {
+    private final transient HibernateQueryInterceptor hibernateQueryInterceptor;
+    private final transient UnitOfWorkState state;
+
+    SessionQueryInterceptor(HibernateQueryInterceptor hibernateQueryInterceptor, UnitOfWorkState state) {
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+        this.state = state;
+    }
+
+    /**
+     * Get the query metrics of the session
+     *
+     * @return Query metrics in which the session records its statements, null if none
+     */
+    public QueryMetrics getQueryMetrics() {
+        return state.getQueryMetrics();
+    }
+
+    SqlTrace.Statement getTracedStatement() {
+        return state.getTracedStatement();
+    }
+
+    /**
+     * Bind the session intercepted, needed by the automatic batch initialization of the proxies
+     *
+     * @param session Session intercepted
+     */
+    public void bindSession(Session session) {
+        state.getBoundSession().setSession(session.unwrap(SessionImplementor.class));
+    }
+
+    /**
+     * @see HibernateQueryInterceptor#onEvict(String, Serializable)
+     */
+    public void onEvict(String entityName, Serializable id) {
+        hibernateQueryInterceptor.onEvict(state, entityName, id);
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        return hibernateQueryInterceptor.onPrepareStatement(state, sql);
+    }
+
+    @Override
+    public String inspect(String sql) {
+        return onPrepareStatement(sql);
+    }
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        hibernateQueryInterceptor.onLoad(this.state, entity, id, state);
+        return super.onLoad(entity, id, state, propertyNames, types);
+    }
+
+    @Override
+    public void preFlush(Iterator entities) {
+        hibernateQueryInterceptor.preFlush(state, entities);
+    }
+
+    @Override
+    public void postFlush(Iterator entities) {
+        hibernateQueryInterceptor.postFlush(state, entities);
+    }
+
+    @Override
+    public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+                                String[] propertyNames, Type[] types) {
+        hibernateQueryInterceptor.onFlushDirty(state, entity, id);
+        return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+    }
+
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        hibernateQueryInterceptor.onFlushDirtyOrDelete(this.state, entity, id);
+    }
+
+    @Override
+    public void afterTransactionCompletion(Transaction tx) {
+        hibernateQueryInterceptor.transactionCompleted(state);
+    }
+
+    @Override
+    public Object getEntity(String entityName, Serializable id) {
+        return hibernateQueryInterceptor.getEntity(state, entityName, id);
+    }
+}
@@ -0,0 +1,99 @@
+package com.jpozarycki.interceptor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.regex.Pattern;
+
+/**
+ * Fingerprints of the SQL statements: the statements with their literals replaced by ? and their IN-lists collapsed,
+ * so that the statements only differing by their values share a fingerprint
+ * <p>
+ * Fingerprints are cached in a bounded Caffeine cache of raw SQL to fingerprint as the statements prepared by Hibernate
+ * are a small set of strings, the lookups of the request threads not contending on a lock
+ */
+class SqlFingerprints {
+    private static final Pattern IN_LIST = Pattern.compile("\\bin \\( ?\\?( ?, ?\\?)* ?\\)");
+
+    private final Cache<String, String> fingerprintsBySql;
+
+    SqlFingerprints(int maxSize) {
+        this.fingerprintsBySql = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Get the fingerprint of a statement from the cache, normalizing the statement if missing
+     *
+     * @param sql Statement to be executed
+     * @return Fingerprint of the statement
+     */
+    String fingerprint(String sql) {
+        String fingerprint = fingerprintsBySql.getIfPresent(sql);
+        if (fingerprint == null) {
+            // Normalized outside of the cache computation, two threads normalizing the same statement at worst
+            fingerprint = normalize(sql);
+            fingerprintsBySql.put(sql, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Normalize a statement: lower case, blanks collapsed, string and numeric literals replaced by ? and IN-lists of
+     * parameters collapsed to a single parameter
+     *
+     * @param sql Statement to normalize
+     * @return Fingerprint of the statement
+     */
+    static String normalize(String sql) {
+        StringBuilder fingerprint = new StringBuilder(sql.length());
+        int i = 0;
+        while (i < sql.length()) {
+            char character = sql.charAt(i);
+            if (character == '\'') {
+                // Skip the string literal, quotes being escaped by doubling them
+                i++;
+                while (i < sql.length()) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                fingerprint.append('?');
+                i++;
+            } else if (Character.isDigit(character) && !endsWithIdentifier(fingerprint)) {
+                while (i < sql.length() && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                fingerprint.append('?');
+            } else if (Character.isWhitespace(character)) {
+                if (fingerprint.length() > 0 && fingerprint.charAt(fingerprint.length() - 1) != ' ') {
+                    fingerprint.append(' ');
+                }
+                i++;
+            } else {
+                fingerprint.append(Character.toLowerCase(character));
+                i++;
+            }
+        }
+
+        int length = fingerprint.length();
+        if (length > 0 && fingerprint.charAt(length - 1) == ' ') {
+            fingerprint.setLength(length - 1);
+        }
+        return IN_LIST.matcher(fingerprint).replaceAll("in (?)");
+    }
+
+    private static boolean endsWithIdentifier(StringBuilder fingerprint) {
+        if (fingerprint.length() == 0) {
+            return false;
+        }
+        char last = fingerprint.charAt(fingerprint.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$' || last == '"';
+    }
+}
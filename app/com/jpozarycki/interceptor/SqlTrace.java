@@ -0,0 +1,116 @@
+package com.jpozarycki.interceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Statements executed while handling a request, recorded by the {@link HibernateQueryInterceptor} between
+ * {@link HibernateQueryInterceptor#startSqlTrace(String, String)} and the completion of the request
+ * <p>
+ * The sessions of a request may record their statements concurrently, the statements are therefore added under the
+ * lock of the trace, while each statement is only updated by the session that prepared it
+ */
+public class SqlTrace {
+    private final String method;
+    private final String path;
+    private final int maxStatements;
+    private final long startNanos = System.nanoTime();
+    private final List<Statement> statements = new ArrayList<>();
+    private final AtomicInteger droppedStatements = new AtomicInteger();
+    private volatile long durationNanos = -1;
+
+    SqlTrace(String method, String path, int maxStatements) {
+        this.method = method;
+        this.path = path;
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * Record a statement prepared for the request
+     *
+     * @param sql    Statement prepared
+     * @param origin Frame of the application code preparing the statement, null if it was not found
+     * @return Statement recorded, null if the maximum number of statements of the trace was reached
+     */
+    Statement statementPrepared(String sql, StackTraceElement origin) {
+        synchronized (statements) {
+            if (statements.size() >= maxStatements) {
+                droppedStatements.incrementAndGet();
+                return null;
+            }
+            Statement statement = new Statement(sql, origin);
+            statements.add(statement);
+            return statement;
+        }
+    }
+
+    void completed() {
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Take a snapshot of the trace to report it
+     */
+    TracedRequest toTracedRequest() {
+        List<TracedStatement> tracedStatements;
+        synchronized (statements) {
+            tracedStatements = new ArrayList<>(statements.size());
+            for (Statement statement : statements) {
+                tracedStatements.add(statement.toTracedStatement());
+            }
+        }
+
+        long jdbcExecutionMicros = 0;
+        for (TracedStatement tracedStatement : tracedStatements) {
+            jdbcExecutionMicros += tracedStatement.getJdbcExecutionMicros();
+        }
+        return new TracedRequest(
+                method,
+                path,
+                TimeUnit.NANOSECONDS.toMicros(durationNanos),
+                tracedStatements.size() + droppedStatements.get(),
+                droppedStatements.get(),
+                jdbcExecutionMicros,
+                tracedStatements
+        );
+    }
+
+    /**
+     * Statement of the trace, timed and counting its rows once executed
+     */
+    static class Statement {
+        private final String sql;
+        private final StackTraceElement origin;
+        private volatile long jdbcExecutionNanos;
+        private volatile int rows;
+
+        private Statement(String sql, StackTraceElement origin) {
+            this.sql = sql;
+            this.origin = origin;
+        }
+
+        void executed(long nanos) {
+            jdbcExecutionNanos += nanos;
+        }
+
+        void rowLoaded() {
+            rows++;
+        }
+
+        private TracedStatement toTracedStatement() {
+            return new TracedStatement(
+                    sql,
+                    QueryMetrics.StatementType.of(sql).name(),
+                    TimeUnit.NANOSECONDS.toMicros(jdbcExecutionNanos),
+                    rows,
+                    origin == null ? null : origin.toString()
+            );
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.jpozarycki.interceptor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Keep the SQL traces of the last requests in a bounded ring buffer, overwriting the oldest trace once full
+ * <p>
+ * Completing a trace claims a slot with a single atomic increment, so the requests never wait for each other
+ */
+public class SqlTraceRecorder {
+    private final boolean enabled;
+    private final int maxStatements;
+    private final AtomicReferenceArray<SqlTrace> traces;
+    private final AtomicLong nextSlot = new AtomicLong();
+
+    SqlTraceRecorder(HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties) {
+        this.enabled = hibernateQueryInterceptorProperties.isSqlTraceEnabled();
+        this.maxStatements = hibernateQueryInterceptorProperties.getSqlTraceMaxStatements();
+        this.traces = new AtomicReferenceArray<>(
+                enabled ? Math.max(hibernateQueryInterceptorProperties.getSqlTraceCapacity(), 1) : 0
+        );
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    SqlTrace newTrace(String method, String path) {
+        return new SqlTrace(method, path, maxStatements);
+    }
+
+    /**
+     * Keep the trace of a request once completed
+     *
+     * @param sqlTrace Trace of the completed request
+     */
+    public void completed(SqlTrace sqlTrace) {
+        sqlTrace.completed();
+        traces.set((int) (nextSlot.getAndIncrement() % traces.length()), sqlTrace);
+    }
+
+    /**
+     * Get the slowest of the last requests traced
+     *
+     * @param limit Maximum number of requests
+     * @return Traces of the requests, from the slowest
+     */
+    public List<TracedRequest> slowest(int limit) {
+        List<SqlTrace> completedTraces = new ArrayList<>(traces.length());
+        for (int i = 0; i < traces.length(); i++) {
+            SqlTrace sqlTrace = traces.get(i);
+            if (sqlTrace != null) {
+                completedTraces.add(sqlTrace);
+            }
+        }
+        return completedTraces.stream()
+                .sorted(Comparator.comparingLong(SqlTrace::getDurationNanos).reversed())
+                .limit(limit)
+                .map(SqlTrace::toTracedRequest)
+                .collect(Collectors.toList());
+    }
+}
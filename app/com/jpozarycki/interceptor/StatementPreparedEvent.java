@@ -0,0 +1,23 @@
+package com.jpozarycki.interceptor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of a statement prepared by a session intercepted by the {@link HibernateQueryInterceptor}
+ * <p>
+ * The statement is only fingerprinted when the event is enabled in a running recording
+ */
+@Name("com.jpozarycki.interceptor.StatementPrepared")
+@Label("Statement Prepared")
+@Category({"Hibernate", "Query Interceptor"})
+@Description("Statement prepared by an intercepted session")
+@StackTrace(false)
+final class StatementPreparedEvent extends jdk.jfr.Event {
+    @Label("Fingerprint")
+    @Description("Statement without its literals and with its IN-lists collapsed")
+    String fingerprint;
+}
@@ -0,0 +1,25 @@
+package com.jpozarycki.interceptor;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * SQL trace of a request reported by the {@link SqlTraceRecorder}
+ */
+@Value
+public class TracedRequest {
+    String method;
+    String path;
+    long durationMicros;
+    /**
+     * Number of statements prepared, including the statements dropped over the maximum of the trace
+     */
+    int statementCount;
+    int droppedStatements;
+    /**
+     * Cumulative execution time of the JDBC statements traced
+     */
+    long jdbcExecutionMicros;
+    List<TracedStatement> statements;
+}
@@ -0,0 +1,24 @@
+package com.jpozarycki.interceptor;
+
+import lombok.Value;
+
+/**
+ * Statement of the SQL trace of a request
+ */
+@Value
+public class TracedStatement {
+    String sql;
+    String type;
+    /**
+     * Cumulative execution time of the statement, several executions for a JDBC batch
+     */
+    long jdbcExecutionMicros;
+    /**
+     * Number of entities loaded from the rows of the statement, the JDBC row counts not being exposed by Hibernate
+     */
+    int rows;
+    /**
+     * Frame of the application code preparing the statement, null if it was not found
+     */
+    String origin;
+}
@@ -0,0 +1,57 @@
+package com.jpozarycki.interceptor;
+
+import java.util.Arrays;
+
+/**
+ * Sampling decisions of the current transaction, drawn once so that both getEntity calls made for an entity are
+ * either inspected or skipped
+ */
+class TransactionSampling {
+    private static final byte UNDECIDED = 0;
+    private static final byte SAMPLED = 1;
+    private static final byte NOT_SAMPLED = 2;
+
+    private byte transactionDecision = UNDECIDED;
+    private byte[] entityDecisions = new byte[16];
+
+    /**
+     * Check whether N+1 queries are detected in the current transaction
+     *
+     * @param detectionSampler Sampler drawing the decision if not taken yet
+     */
+    boolean isSampled(DetectionSampler detectionSampler) {
+        if (transactionDecision == UNDECIDED) {
+            transactionDecision = detectionSampler.sampleTransaction() ? SAMPLED : NOT_SAMPLED;
+        }
+        return transactionDecision == SAMPLED;
+    }
+
+    /**
+     * Check whether N+1 queries are detected on the entity in the current transaction
+     *
+     * @param detectionSampler Sampler drawing the decisions not taken yet
+     * @param entityIndex      Index of the entity name
+     * @param entityName       Name of the entity
+     */
+    boolean isSampled(DetectionSampler detectionSampler, int entityIndex, String entityName) {
+        if (!isSampled(detectionSampler)) {
+            return false;
+        }
+
+        if (entityIndex >= entityDecisions.length) {
+            entityDecisions = Arrays.copyOf(entityDecisions, Math.max(entityIndex + 1, entityDecisions.length << 1));
+        }
+        if (entityDecisions[entityIndex] == UNDECIDED) {
+            entityDecisions[entityIndex] = detectionSampler.sampleEntity(entityName) ? SAMPLED : NOT_SAMPLED;
+        }
+        return entityDecisions[entityIndex] == SAMPLED;
+    }
+
+    /**
+     * Forget the decisions at the end of a transaction
+     */
+    void reset() {
+        transactionDecision = UNDECIDED;
+        Arrays.fill(entityDecisions, UNDECIDED);
+    }
+}
@@ -0,0 +1,142 @@
+package com.jpozarycki.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of the N+1 queries detection and of the query metrics for a unit of work, i.e. a session with the
+ * {@link SessionQueryInterceptor} or a thread with the {@link HibernateQueryInterceptor} itself
+ * <p>
+ * A session is used by a single thread at a time, the state is therefore not synchronized
+ */
+class UnitOfWorkState {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private final LoadedEntities previouslyLoadedEntities = new LoadedEntities();
+    private final Map<String, String> proxyMethodEntityMapping = new HashMap<>();
+    private final TransactionSampling transactionSampling = new TransactionSampling();
+    private final RepeatedStatements repeatedStatements = new RepeatedStatements();
+    private final FetchPlanAdvisor.TransactionDetections transactionDetections =
+            new FetchPlanAdvisor.TransactionDetections();
+    private final BoundSession boundSession = new BoundSession();
+    private final List<EntityCache.Key> invalidatedEntities = new ArrayList<>();
+    private final PersistenceContextUsage persistenceContextUsage = new PersistenceContextUsage();
+    private final Set<String> overFetchingStatements = new HashSet<>();
+    private QueryMetrics queryMetrics;
+    private SqlTrace sqlTrace;
+    private SqlTrace.Statement tracedStatement;
+    private FetchedStatement fetchedStatement;
+
+    UnitOfWorkState(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    /**
+     * Get the id identifying the unit of work in the events of the {@link NPlusOneQueriesAnalyzer}
+     */
+    long getId() {
+        return id;
+    }
+
+    LoadedEntities getPreviouslyLoadedEntities() {
+        return previouslyLoadedEntities;
+    }
+
+    Map<String, String> getProxyMethodEntityMapping() {
+        return proxyMethodEntityMapping;
+    }
+
+    TransactionSampling getTransactionSampling() {
+        return transactionSampling;
+    }
+
+    RepeatedStatements getRepeatedStatements() {
+        return repeatedStatements;
+    }
+
+    FetchPlanAdvisor.TransactionDetections getTransactionDetections() {
+        return transactionDetections;
+    }
+
+    BoundSession getBoundSession() {
+        return boundSession;
+    }
+
+    /**
+     * Get the keys of the cached entities invalidated in the transaction
+     */
+    List<EntityCache.Key> getInvalidatedEntities() {
+        return invalidatedEntities;
+    }
+
+    PersistenceContextUsage getPersistenceContextUsage() {
+        return persistenceContextUsage;
+    }
+
+    /**
+     * Get the fingerprints of the statements reported as over-fetching in the transaction
+     */
+    Set<String> getOverFetchingStatements() {
+        return overFetchingStatements;
+    }
+
+    QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    void setQueryMetrics(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    SqlTrace getSqlTrace() {
+        return sqlTrace;
+    }
+
+    void setSqlTrace(SqlTrace sqlTrace) {
+        this.sqlTrace = sqlTrace;
+        this.tracedStatement = null;
+    }
+
+    /**
+     * Get the last statement traced, timed and counting its rows as it is executed
+     */
+    SqlTrace.Statement getTracedStatement() {
+        return tracedStatement;
+    }
+
+    void setTracedStatement(SqlTrace.Statement tracedStatement) {
+        this.tracedStatement = tracedStatement;
+    }
+
+    /**
+     * Get the statement hydrating the entities, counting its rows as it is read
+     */
+    FetchedStatement getFetchedStatement() {
+        return fetchedStatement;
+    }
+
+    void setFetchedStatement(FetchedStatement fetchedStatement) {
+        this.fetchedStatement = fetchedStatement;
+    }
+
+    /**
+     * Reset the state of the transaction having been completed
+     */
+    void transactionCompleted() {
+        previouslyLoadedEntities.clear();
+        proxyMethodEntityMapping.clear();
+        transactionSampling.reset();
+        repeatedStatements.clear();
+        tracedStatement = null;
+        invalidatedEntities.clear();
+        persistenceContextUsage.reset();
+        overFetchingStatements.clear();
+        fetchedStatement = null;
+    }
+}
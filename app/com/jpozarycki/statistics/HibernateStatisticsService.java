@@ -0,0 +1,312 @@
+package com.jpozarycki.statistics;
+
+import com.jpozarycki.statistics.HibernateStatisticsSnapshot.CollectionHotSpot;
+import com.jpozarycki.statistics.HibernateStatisticsSnapshot.EntityHotSpot;
+import com.jpozarycki.statistics.HibernateStatisticsSnapshot.QueryHotSpot;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Take periodic snapshots of the Hibernate statistics of the session factory registered, each snapshot holding the
+ * difference with the previous reading along with the hot spots of the window, i.e. the entities, collections and
+ * queries costing the most
+ * <p>
+ * The statistics are only collected while enabled, which can be toggled at runtime so that they are only paid for
+ * while diagnosing. Enabling them clears the statistics collected before
+ */
+@Slf4j
+public class HibernateStatisticsService implements AutoCloseable {
+    private static final int LOADS = 0;
+    private static final int FETCHES = 1;
+    private static final int EXECUTIONS = 0;
+    private static final int ROWS = 1;
+    private static final int TOTAL_TIME = 2;
+
+    private final Duration interval;
+    private final int maxHotSpots;
+    private final ScheduledExecutorService snapshotExecutor;
+    private volatile boolean enabled;
+    private volatile SessionFactory sessionFactory;
+    private volatile HibernateStatisticsSnapshot latestSnapshot;
+    private Reading previousReading = new Reading();
+
+    /**
+     * @param enabled     Whether the statistics are enabled initially
+     * @param interval    Interval between two snapshots, at least a millisecond
+     * @param maxHotSpots Maximum number of entities, collections and queries reported in each snapshot
+     * @throws IllegalArgumentException If the interval is shorter than a millisecond
+     */
+    public HibernateStatisticsService(boolean enabled, Duration interval, int maxHotSpots) {
+        if (interval.toMillis() < 1) {
+            throw new IllegalArgumentException(
+                    "The interval of the Hibernate statistics snapshots must be at least 1ms, got " + interval
+            );
+        }
+        this.enabled = enabled;
+        this.interval = interval;
+        this.maxHotSpots = maxHotSpots;
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hibernate-statistics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotExecutor.scheduleAtFixedRate(
+                this::takeSnapshot, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Register the session factory whose statistics are collected, applying the current toggle to its statistics
+     *
+     * @param sessionFactory Session factory built
+     */
+    public synchronized void register(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+        applyEnabled();
+    }
+
+    /**
+     * Unregister the session factory, e.g. before closing it
+     *
+     * @param sessionFactory Session factory registered
+     */
+    public synchronized void unregister(SessionFactory sessionFactory) {
+        if (this.sessionFactory == sessionFactory) {
+            this.sessionFactory = null;
+            this.latestSnapshot = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the collection of the statistics at runtime
+     *
+     * @param enabled Whether the statistics are collected
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (this.enabled != enabled) {
+            this.enabled = enabled;
+            applyEnabled();
+        }
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get the snapshot taken last
+     *
+     * @return Latest snapshot, null if the statistics are disabled or no snapshot was taken since they were enabled
+     */
+    public HibernateStatisticsSnapshot getLatestSnapshot() {
+        return enabled ? latestSnapshot : null;
+    }
+
+    /**
+     * Take a snapshot of the statistics collected since the previous one, as done at each interval
+     *
+     * @return Snapshot taken, null if the statistics are disabled or no session factory is registered
+     */
+    public synchronized HibernateStatisticsSnapshot snapshot() {
+        if (!enabled || sessionFactory == null) {
+            return null;
+        }
+        Reading reading = Reading.of(sessionFactory.getStatistics());
+        HibernateStatisticsSnapshot snapshot = difference(previousReading, reading);
+        previousReading = reading;
+        latestSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Stop taking snapshots
+     */
+    @Override
+    public void close() {
+        snapshotExecutor.shutdown();
+    }
+
+    private void takeSnapshot() {
+        try {
+            snapshot();
+        } catch (RuntimeException exception) {
+            log.warn("Failed to take a snapshot of the Hibernate statistics", exception);
+        }
+    }
+
+    private void applyEnabled() {
+        latestSnapshot = null;
+        if (sessionFactory == null) {
+            return;
+        }
+        Statistics statistics = sessionFactory.getStatistics();
+        if (enabled) {
+            statistics.clear();
+            previousReading = Reading.of(statistics);
+        }
+        statistics.setStatisticsEnabled(enabled);
+    }
+
+    private HibernateStatisticsSnapshot difference(Reading previous, Reading current) {
+        return new HibernateStatisticsSnapshot(
+                previous.timeMillis,
+                current.timeMillis,
+                current.entityLoads - previous.entityLoads,
+                current.entityFetches - previous.entityFetches,
+                current.collectionLoads - previous.collectionLoads,
+                current.collectionFetches - previous.collectionFetches,
+                current.queryExecutions - previous.queryExecutions,
+                current.queryExecutionMaxTime,
+                ratio(
+                        current.queryPlanCacheHits - previous.queryPlanCacheHits,
+                        current.queryPlanCacheMisses - previous.queryPlanCacheMisses
+                ),
+                ratio(
+                        current.secondLevelCacheHits - previous.secondLevelCacheHits,
+                        current.secondLevelCacheMisses - previous.secondLevelCacheMisses
+                ),
+                ratio(
+                        current.queryCacheHits - previous.queryCacheHits,
+                        current.queryCacheMisses - previous.queryCacheMisses
+                ),
+                hotSpots(
+                        previous.entities, current.entities,
+                        (name, counts) -> new EntityHotSpot(name, counts[LOADS], counts[FETCHES]),
+                        counts -> counts[LOADS] + counts[FETCHES]
+                ),
+                hotSpots(
+                        previous.collections, current.collections,
+                        (role, counts) -> new CollectionHotSpot(role, counts[LOADS], counts[FETCHES]),
+                        counts -> counts[FETCHES]
+                ),
+                hotSpots(
+                        previous.queries, current.queries,
+                        (query, counts) -> new QueryHotSpot(
+                                query,
+                                counts[EXECUTIONS],
+                                counts[ROWS],
+                                counts[TOTAL_TIME],
+                                (double) counts[TOTAL_TIME] / counts[EXECUTIONS],
+                                current.queryMaxTimes.get(query)
+                        ),
+                        counts -> counts[TOTAL_TIME]
+                )
+        );
+    }
+
+    /**
+     * Get the hot spots of the window, the difference of their counters being positive, the costliest first
+     */
+    private <T> List<T> hotSpots(Map<String, long[]> previous, Map<String, long[]> current,
+                                 HotSpotFactory<T> hotSpotFactory, Function<long[], Long> cost) {
+        Map<String, long[]> differences = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : current.entrySet()) {
+            long[] previousCounts = previous.get(entry.getKey());
+            long[] counts = entry.getValue().clone();
+            if (previousCounts != null) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] -= previousCounts[i];
+                }
+            }
+            if (counts[0] > 0 || counts[1] > 0) {
+                differences.put(entry.getKey(), counts);
+            }
+        }
+        return differences.entrySet().stream()
+                .sorted(Comparator.comparing(
+                        (Map.Entry<String, long[]> entry) -> cost.apply(entry.getValue())
+                ).reversed())
+                .limit(maxHotSpots)
+                .map(entry -> hotSpotFactory.create(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private static Double ratio(long hits, long misses) {
+        long lookups = hits + misses;
+        return lookups == 0 ? null : (double) hits / lookups;
+    }
+
+    private interface HotSpotFactory<T> {
+        T create(String name, long[] counts);
+    }
+
+    /**
+     * Cumulative counters of the statistics at a point in time
+     */
+    private static class Reading {
+        private final long timeMillis = System.currentTimeMillis();
+        private long entityLoads;
+        private long entityFetches;
+        private long collectionLoads;
+        private long collectionFetches;
+        private long queryExecutions;
+        private long queryExecutionMaxTime;
+        private long queryPlanCacheHits;
+        private long queryPlanCacheMisses;
+        private long secondLevelCacheHits;
+        private long secondLevelCacheMisses;
+        private long queryCacheHits;
+        private long queryCacheMisses;
+        private final Map<String, long[]> entities = new HashMap<>();
+        private final Map<String, long[]> collections = new HashMap<>();
+        private final Map<String, long[]> queries = new HashMap<>();
+        private final Map<String, Long> queryMaxTimes = new HashMap<>();
+
+        static Reading of(Statistics statistics) {
+            Reading reading = new Reading();
+            reading.entityLoads = statistics.getEntityLoadCount();
+            reading.entityFetches = statistics.getEntityFetchCount();
+            reading.collectionLoads = statistics.getCollectionLoadCount();
+            reading.collectionFetches = statistics.getCollectionFetchCount();
+            reading.queryExecutions = statistics.getQueryExecutionCount();
+            reading.queryExecutionMaxTime = statistics.getQueryExecutionMaxTime();
+            reading.queryPlanCacheHits = statistics.getQueryPlanCacheHitCount();
+            reading.queryPlanCacheMisses = statistics.getQueryPlanCacheMissCount();
+            reading.secondLevelCacheHits = statistics.getSecondLevelCacheHitCount();
+            reading.secondLevelCacheMisses = statistics.getSecondLevelCacheMissCount();
+            reading.queryCacheHits = statistics.getQueryCacheHitCount();
+            reading.queryCacheMisses = statistics.getQueryCacheMissCount();
+            for (String entityName : statistics.getEntityNames()) {
+                EntityStatistics entityStatistics = statistics.getEntityStatistics(entityName);
+                reading.entities.put(
+                        entityName, new long[]{entityStatistics.getLoadCount(), entityStatistics.getFetchCount()}
+                );
+            }
+            for (String role : statistics.getCollectionRoleNames()) {
+                CollectionStatistics collectionStatistics = statistics.getCollectionStatistics(role);
+                reading.collections.put(
+                        role, new long[]{collectionStatistics.getLoadCount(), collectionStatistics.getFetchCount()}
+                );
+            }
+            for (String query : statistics.getQueries()) {
+                QueryStatistics queryStatistics = statistics.getQueryStatistics(query);
+                reading.queries.put(query, new long[]{
+                        queryStatistics.getExecutionCount(),
+                        queryStatistics.getExecutionRowCount(),
+                        queryStatistics.getExecutionTotalTime()
+                });
+                reading.queryMaxTimes.put(query, queryStatistics.getExecutionMaxTime());
+            }
+            return reading;
+        }
+    }
+}
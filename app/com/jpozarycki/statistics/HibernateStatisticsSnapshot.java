@@ -0,0 +1,68 @@
+package com.jpozarycki.statistics;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Hibernate statistics of a session factory over a window, i.e. the difference between two readings of the statistics
+ * taken by the {@link HibernateStatisticsService}
+ * <p>
+ * The hit ratios are null when there was no lookup in the window
+ */
+@Value
+public class HibernateStatisticsSnapshot {
+    long windowStartMillis;
+    long windowEndMillis;
+    long entityLoads;
+    long entityFetches;
+    long collectionLoads;
+    long collectionFetches;
+    long queryExecutions;
+    /**
+     * Highest execution time of a query since the statistics were enabled, Hibernate keeping no maximum per window
+     */
+    long queryExecutionMaxTimeMillis;
+    Double queryPlanCacheHitRatio;
+    Double secondLevelCacheHitRatio;
+    Double queryCacheHitRatio;
+    /**
+     * Entities loaded or fetched the most in the window
+     */
+    List<EntityHotSpot> entities;
+    /**
+     * Collections fetched the most in the window
+     */
+    List<CollectionHotSpot> collections;
+    /**
+     * Queries taking the most time in total in the window
+     */
+    List<QueryHotSpot> queries;
+
+    @Value
+    public static class EntityHotSpot {
+        String entityName;
+        long loads;
+        long fetches;
+    }
+
+    @Value
+    public static class CollectionHotSpot {
+        String role;
+        long loads;
+        long fetches;
+    }
+
+    @Value
+    public static class QueryHotSpot {
+        String query;
+        long executions;
+        long rows;
+        long totalTimeMillis;
+        double averageTimeMillis;
+        /**
+         * Highest execution time of the query since the statistics were enabled
+         */
+        long maxTimeMillis;
+    }
+}
@@ -0,0 +1,87 @@
+package com.jpozarycki.interceptor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the {@link CallStack} walk with the former three {@link Thread#getStackTrace()} scans made by each
+ * getEntity call, for call stacks of increasing depth
+ * <p>
+ * Run with: sbt "bench/jmh:run CallStackBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallStackBenchmark {
+    private static final String ENTITY_NAME = "com.jpozarycki.utils.entity.User";
+    private static final String HIBERNATE_PROXY_PREFIX = "org.hibernate.proxy";
+    private static final String PROXY_METHOD_PREFIX = "com.sun.proxy";
+
+    @Param({"32", "128", "512"})
+    private int depth;
+
+    @Benchmark
+    public Object stackTraceScans() {
+        return atDepth(depth, false);
+    }
+
+    @Benchmark
+    public Object stackWalker() {
+        return atDepth(depth, true);
+    }
+
+    private Object atDepth(int remainingDepth, boolean stackWalker) {
+        if (remainingDepth > 0) {
+            return atDepth(remainingDepth - 1, stackWalker);
+        }
+        return stackWalker ? walkCallStack() : scanStackTraces();
+    }
+
+    private static Object walkCallStack() {
+        CallStack callStack = new CallStack(ENTITY_NAME);
+        Optional<StackTraceElement> eagerFetchingOrigin = callStack.getEagerFetchingOrigin();
+        Optional<String> proxyMethodName = callStack.getProxyMethodName();
+        return eagerFetchingOrigin.isPresent() ? eagerFetchingOrigin : proxyMethodName;
+    }
+
+    /**
+     * Former implementation of the detections, materializing the whole stack trace three times
+     */
+    private static Object scanStackTraces() {
+        StackTraceElement originStackTraceElement = null;
+        StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+        for (int i = 0; i < stackTraceElements.length - 3; i++) {
+            if (
+                    stackTraceElements[i].getClassName().indexOf(HIBERNATE_PROXY_PREFIX) == 0
+                            && stackTraceElements[i + 1].getClassName().indexOf(ENTITY_NAME) == 0
+            ) {
+                originStackTraceElement = stackTraceElements[i + 2];
+                break;
+            }
+        }
+
+        String proxyMethodName = null;
+        stackTraceElements = Thread.currentThread().getStackTrace();
+        for (int i = stackTraceElements.length - 1; i >= 0; i--) {
+            if (stackTraceElements[i].getClassName().indexOf(PROXY_METHOD_PREFIX) == 0) {
+                proxyMethodName = stackTraceElements[i].getClassName() + stackTraceElements[i].getMethodName();
+                break;
+            }
+        }
+
+        stackTraceElements = Thread.currentThread().getStackTrace();
+        for (int i = stackTraceElements.length - 1; i >= 1; i--) {
+            if (stackTraceElements[i - 1].getClassName().indexOf(PROXY_METHOD_PREFIX) == 0) {
+                originStackTraceElement = stackTraceElements[i];
+                break;
+            }
+        }
+
+        return originStackTraceElement != null ? originStackTraceElement : proxyMethodName;
+    }
+}
@@ -0,0 +1,92 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Post;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the overhead of the N+1 queries detection on reading the authors of the messages of all the posts of the
+ * test model, on an in-memory H2 database
+ * <p>
+ * The posts are read either with a join fetch of their message and author, or with the N+1 queries of the eager
+ * message and of the lazy author. They are read without interceptor, with the interceptor registered on the session
+ * factory and keeping its state per thread, or with a session interceptor opened for each session. The detected N+1
+ * queries are aggregated instead of logged so that the logging does not hide the cost of the detection.
+ * <p>
+ * Run with -prof gc to report the allocation rate along with the throughput, e.g.
+ * sbt "bench/jmh:run -prof gc -t 4 EndToEndBenchmark", or with the {@link InterceptorBenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+    private static final String JOIN_FETCH_QUERY = "select p from Post p join fetch p.message m join fetch m.author";
+    private static final String N_PLUS_ONE_QUERY = "from Post";
+
+    public enum Interception {
+        NONE, THREAD, SESSION
+    }
+
+    @Param({"10", "100", "1000"})
+    private int messageCount;
+
+    @Param({"NONE", "THREAD", "SESSION"})
+    private Interception interception;
+
+    @Param({"false", "true"})
+    private boolean joinFetch;
+
+    private SessionFactory sessionFactory;
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Setup
+    public void setUp() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAggregationWindow(Duration.ofHours(1));
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+
+        sessionFactory = interception == Interception.THREAD
+                ? TestSessionFactory.build("end-to-end-benchmark", hibernateQueryInterceptor)
+                : TestSessionFactory.build("end-to-end-benchmark");
+        TestSessionFactory.insertMessages(sessionFactory, messageCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public List<String> readAuthors() {
+        try (Session session = openSession()) {
+            Transaction transaction = session.beginTransaction();
+
+            List<String> names = new ArrayList<>(messageCount);
+            for (Post post : session.createQuery(joinFetch ? JOIN_FETCH_QUERY : N_PLUS_ONE_QUERY, Post.class).list()) {
+                names.add(post.getMessage().getAuthor().getName());
+            }
+
+            transaction.commit();
+            return names;
+        }
+    }
+
+    private Session openSession() {
+        if (interception == Interception.SESSION) {
+            return hibernateQueryInterceptor.openSession(sessionFactory);
+        }
+        return sessionFactory.openSession();
+    }
+}
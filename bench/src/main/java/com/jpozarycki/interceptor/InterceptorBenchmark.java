@@ -0,0 +1,110 @@
+package com.jpozarycki.interceptor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the hot paths of the interceptor in isolation, i.e. without any session nor database: the getEntity calls
+ * of the proxy initializations, the onPrepareStatement calls of the statements and the afterTransactionCompletion
+ * resetting the state of the transaction
+ * <p>
+ * The interceptor is shared by the benchmark threads as the singleton of the application, each thread having its own
+ * session interceptor. The detected N+1 queries are aggregated instead of logged so that the logging does not hide
+ * the cost of the detection. Run with -prof gc to report the allocation rate along with the throughput, e.g.
+ * sbt "bench/jmh:run -prof gc -t 4 InterceptorBenchmark", or with the {@link InterceptorBenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+    private static final String ENTITY_NAME = "com.jpozarycki.utils.entity.User";
+
+    @Param({"10", "100", "1000"})
+    private int entityCount;
+
+    @Param({"0", "10"})
+    private int repeatedStatementThreshold;
+
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+    private String[] statements;
+
+    @Setup
+    public void setUp() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAggregationWindow(Duration.ofHours(1));
+        properties.setRepeatedStatementThreshold(repeatedStatementThreshold);
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+
+        statements = new String[entityCount];
+        for (int i = 0; i < entityCount; i++) {
+            statements[i] = "select user0_.id as id1_2_0_, user0_.name as name2_2_0_ from users user0_ where user0_.id="
+                    + i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UnitOfWork {
+        private SessionQueryInterceptor sessionQueryInterceptor;
+        private long next;
+
+        @Setup
+        public void setUp(InterceptorBenchmark benchmark) {
+            sessionQueryInterceptor = benchmark.hibernateQueryInterceptor.newSessionInterceptor(new QueryMetrics());
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            sessionQueryInterceptor.afterTransactionCompletion(null);
+        }
+
+        private int nextIndex(int count) {
+            return (int) (next++ % count);
+        }
+    }
+
+    /**
+     * Initialize a proxy then get the loaded entity again, i.e. the first and the second getEntity calls of an entity
+     */
+    @Benchmark
+    public Object getEntity(UnitOfWork unitOfWork) {
+        Long id = (long) unitOfWork.nextIndex(entityCount);
+        unitOfWork.sessionQueryInterceptor.getEntity(ENTITY_NAME, id);
+        return unitOfWork.sessionQueryInterceptor.getEntity(ENTITY_NAME, id);
+    }
+
+    /**
+     * Same as {@link #getEntity(UnitOfWork)} through the state of the thread instead of the state of the session
+     */
+    @Benchmark
+    public Object getEntityThreadBound(UnitOfWork unitOfWork) {
+        Long id = (long) unitOfWork.nextIndex(entityCount);
+        hibernateQueryInterceptor.getEntity(ENTITY_NAME, id);
+        return hibernateQueryInterceptor.getEntity(ENTITY_NAME, id);
+    }
+
+    /**
+     * Prepare one of entityCount statements differing by their literal, i.e. count the statement and, with a
+     * repeated statement threshold, fingerprint it for the repeated statements detection
+     */
+    @Benchmark
+    public String onPrepareStatement(UnitOfWork unitOfWork) {
+        return unitOfWork.sessionQueryInterceptor.onPrepareStatement(statements[unitOfWork.nextIndex(entityCount)]);
+    }
+
+    /**
+     * Complete a transaction having initialized entityCount proxies
+     */
+    @Benchmark
+    public void afterTransactionCompletion(UnitOfWork unitOfWork) {
+        for (long id = 0; id < entityCount; id++) {
+            unitOfWork.sessionQueryInterceptor.getEntity(ENTITY_NAME, id);
+        }
+        unitOfWork.sessionQueryInterceptor.afterTransactionCompletion(null);
+    }
+}
@@ -0,0 +1,38 @@
+package com.jpozarycki.interceptor;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the {@link InterceptorBenchmark} and the {@link EndToEndBenchmark} with 1, 4 and 8 threads, reporting the
+ * throughput and the allocation rate of the GC profiler, i.e. gc.alloc.rate and gc.alloc.rate.norm in bytes per
+ * operation
+ * <p>
+ * The results of each thread count are written to target/jmh-interceptor-&lt;threads&gt;-threads.json to be compared
+ * across changes. Run with: sbt "bench/jmh:runMain com.jpozarycki.interceptor.InterceptorBenchmarkRunner", the
+ * benchmarks to run being optionally restricted by a regular expression argument.
+ */
+public class InterceptorBenchmarkRunner {
+    private static final int[] THREAD_COUNTS = {1, 4, 8};
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0
+                ? args[0]
+                : InterceptorBenchmark.class.getSimpleName() + "|" + EndToEndBenchmark.class.getSimpleName();
+
+        for (int threadCount : THREAD_COUNTS) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-interceptor-" + threadCount + "-threads.json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.jpozarycki.interceptor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the tracking of loaded entities by {@link LoadedEntities} with the former set of entityName + id keys,
+ * replaying the two getEntity calls made for each lazily loaded entity
+ * <p>
+ * Run with: sbt "bench/jmh:run LoadedEntitiesBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadedEntitiesBenchmark {
+    private static final String ENTITY_NAME = "com.jpozarycki.utils.entity.User";
+
+    @Param({"10", "1000"})
+    private int entityCount;
+
+    private Serializable[] ids;
+    private final Set<String> previouslyLoadedEntityKeys = new HashSet<>();
+    private final LoadedEntities previouslyLoadedEntities = new LoadedEntities();
+
+    @Setup
+    public void setUp() {
+        ids = new Serializable[entityCount];
+        for (int i = 0; i < entityCount; i++) {
+            ids[i] = (long) i;
+        }
+    }
+
+    @Benchmark
+    public boolean entityNameAndIdKeys() {
+        boolean previouslyLoaded = false;
+        for (int call = 0; call < 2; call++) {
+            for (Serializable id : ids) {
+                previouslyLoaded = previouslyLoadedEntityKeys.contains(ENTITY_NAME + id);
+                if (previouslyLoadedEntityKeys.contains(ENTITY_NAME + id)) {
+                    previouslyLoadedEntityKeys.remove(ENTITY_NAME + id);
+                } else {
+                    previouslyLoadedEntityKeys.add(ENTITY_NAME + id);
+                }
+            }
+        }
+        return previouslyLoaded;
+    }
+
+    @Benchmark
+    public boolean loadedEntities() {
+        boolean previouslyLoaded = false;
+        for (int call = 0; call < 2; call++) {
+            for (Serializable id : ids) {
+                int entityIndex = EntityNameIndex.indexOf(ENTITY_NAME);
+                previouslyLoaded = previouslyLoadedEntities.contains(entityIndex, id);
+                if (previouslyLoaded) {
+                    previouslyLoadedEntities.remove(entityIndex, id);
+                } else {
+                    previouslyLoadedEntities.add(entityIndex, id);
+                }
+            }
+        }
+        return previouslyLoaded;
+    }
+}
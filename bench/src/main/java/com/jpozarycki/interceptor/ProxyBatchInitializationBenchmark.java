@@ -0,0 +1,71 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare reading the authors of all the messages, a N+1 queries of a missing eager fetching on the test model,
+ * with and without the automatic batch initialization of the proxies, on an in-memory H2 database
+ * <p>
+ * Run with: sbt "bench/jmh:run ProxyBatchInitializationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyBatchInitializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int messageCount;
+
+    @Param({"false", "true"})
+    private boolean autoBatchInitialization;
+
+    private SessionFactory sessionFactory;
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Setup
+    public void setUp() {
+        sessionFactory = TestSessionFactory.build("proxy-batch-initialization-benchmark");
+        TestSessionFactory.insertMessages(sessionFactory, messageCount);
+
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAutoBatchInitialization(autoBatchInitialization);
+        properties.setAutoBatchInitializationSize(messageCount);
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public List<String> readAuthors() {
+        try (Session session = sessionFactory.withOptions().interceptor(hibernateQueryInterceptor).openSession()) {
+            hibernateQueryInterceptor.bindSession(session);
+            Transaction transaction = session.beginTransaction();
+
+            List<String> names = new ArrayList<>(messageCount);
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                names.add(message.getAuthor().getName());
+            }
+
+            transaction.commit();
+            return names;
+        } finally {
+            hibernateQueryInterceptor.unbindSession();
+        }
+    }
+}
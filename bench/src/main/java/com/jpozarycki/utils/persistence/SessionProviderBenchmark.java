@@ -0,0 +1,55 @@
+package com.jpozarycki.utils.persistence;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare a withSession call on the shared session factory of the {@link SessionProvider} with the former build of a
+ * session factory per call, on an in-memory H2 database
+ * <p>
+ * Run with: sbt "bench/jmh:run SessionProviderBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionProviderBenchmark {
+    private static final String DATABASE_NAME = "session-provider-benchmark";
+    private static final String COUNT_QUERY = "select count(m) from Message m";
+
+    private SessionProvider sessionProvider;
+
+    @Setup
+    public void setUp() {
+        sessionProvider = new SessionProvider(() -> TestSessionFactory.build(DATABASE_NAME));
+        TestSessionFactory.insertMessages(sessionProvider.getSessionFactory(), 10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionProvider.close();
+    }
+
+    @Benchmark
+    public Long sharedSessionFactory() {
+        return sessionProvider.withSession(session -> {
+            return session.createQuery(COUNT_QUERY, Long.class).getSingleResult();
+        });
+    }
+
+    @Benchmark
+    public Long sessionFactoryPerCall() {
+        SessionProvider perCallSessionProvider = new SessionProvider(() -> TestSessionFactory.build(DATABASE_NAME));
+        try {
+            return perCallSessionProvider.withSession(session -> {
+                return session.createQuery(COUNT_QUERY, Long.class).getSingleResult();
+            });
+        } finally {
+            perCallSessionProvider.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.jpozarycki.action;
+
+import com.jpozarycki.exceptions.QueryBudgetExceededException;
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties;
+import com.jpozarycki.interceptor.QueryMetrics;
+import com.jpozarycki.interceptor.SessionQueryInterceptor;
+import org.junit.Before;
+import org.junit.Test;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import java.lang.annotation.Annotation;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class QueryBudgetActionTest {
+
+    private final HibernateQueryInterceptorProperties hibernateQueryInterceptorProperties =
+            new HibernateQueryInterceptorProperties();
+    private final HibernateQueryInterceptor hibernateQueryInterceptor =
+            new HibernateQueryInterceptor(hibernateQueryInterceptorProperties);
+    private final Http.Request request = new Http.RequestBuilder().method("GET").uri("/messages").build();
+
+    private QueryBudgetAction queryBudgetAction;
+
+    @Before
+    public void setUp() {
+        queryBudgetAction = new QueryBudgetAction(hibernateQueryInterceptor, hibernateQueryInterceptorProperties);
+        queryBudgetAction.configuration = queryBudget(2);
+    }
+
+    @Test
+    public void queryBudgetAction_isNotAddingHeaderWithinBudget() {
+        queryBudgetAction.delegate = actionExecutingStatements(2);
+
+        Result result = queryBudgetAction.call(request).toCompletableFuture().join();
+
+        assertThat(result.header(QueryBudgetAction.QUERY_BUDGET_EXCEEDED_HEADER), is(Optional.empty()));
+    }
+
+    @Test
+    public void queryBudgetAction_isAddingHeaderWhenBudgetIsExceeded() {
+        queryBudgetAction.delegate = actionExecutingStatements(3);
+
+        Result result = queryBudgetAction.call(request).toCompletableFuture().join();
+
+        assertThat(result.header(QueryBudgetAction.QUERY_BUDGET_EXCEEDED_HEADER), is(Optional.of("3/2")));
+        assertThat(hibernateQueryInterceptor.getQueryCount(), is(nullValue()));
+    }
+
+    @Test
+    public void queryBudgetAction_isThrowingExceptionWhenBudgetIsExceededWithExceptionErrorLevel() {
+        hibernateQueryInterceptorProperties.setErrorLevel("EXCEPTION");
+        queryBudgetAction.delegate = actionExecutingStatements(3);
+
+        try {
+            queryBudgetAction.call(request).toCompletableFuture().join();
+            assert false;
+        } catch (CompletionException exception) {
+            assertThat(exception.getCause(), instanceOf(QueryBudgetExceededException.class));
+        }
+    }
+
+    @Test
+    public void queryBudgetAction_isCountingStatementsOfSessionOpenedOnAnotherExecutorWithQueryMetrics() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            queryBudgetAction.delegate = new Action<Void>() {
+                @Override
+                public CompletionStage<Result> call(Http.Request request) {
+                    QueryMetrics queryMetrics = request.attrs().get(QueryBudgetAction.QUERY_METRICS);
+                    return CompletableFuture.supplyAsync(() -> {
+                        SessionQueryInterceptor sessionQueryInterceptor =
+                                hibernateQueryInterceptor.newSessionInterceptor(queryMetrics);
+                        for (int i = 0; i < 3; i++) {
+                            sessionQueryInterceptor.onPrepareStatement("select * from messages");
+                        }
+                        return Results.ok();
+                    }, executor);
+                }
+            };
+
+            Result result = queryBudgetAction.call(request).toCompletableFuture().join();
+
+            assertThat(result.header(QueryBudgetAction.QUERY_BUDGET_EXCEEDED_HEADER), is(Optional.of("3/2")));
+            assertThat(hibernateQueryInterceptor.getQueryMetrics(), is(nullValue()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Action<Void> actionExecutingStatements(int statementCount) {
+        return new Action<Void>() {
+            @Override
+            public CompletionStage<Result> call(Http.Request request) {
+                for (int i = 0; i < statementCount; i++) {
+                    hibernateQueryInterceptor.onPrepareStatement("select * from messages");
+                }
+                return CompletableFuture.completedFuture(Results.ok());
+            }
+        };
+    }
+
+    private static QueryBudget queryBudget(int max) {
+        return new QueryBudget() {
+            @Override
+            public int max() {
+                return max;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return QueryBudget.class;
+            }
+        };
+    }
+}
@@ -0,0 +1,44 @@
+package com.jpozarycki.interceptor;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class DetectionSamplerTest {
+    private static final String ENTITY_NAME = "com.jpozarycki.utils.entity.User";
+
+    @Test
+    public void detectionSampler_isSkippingTransactionsOutOfTheSamplingRate() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setSamplingStrategy("FRACTION");
+        properties.setSamplingRate(0);
+        DetectionSampler detectionSampler = new DetectionSampler(properties);
+        TransactionSampling transactionSampling = new TransactionSampling();
+
+        assertThat(transactionSampling.isSampled(detectionSampler, 0, ENTITY_NAME), is(false));
+
+        properties.setSamplingRate(1);
+        assertThat(transactionSampling.isSampled(detectionSampler, 0, ENTITY_NAME), is(false));
+
+        transactionSampling.reset();
+        assertThat(transactionSampling.isSampled(detectionSampler, 0, ENTITY_NAME), is(true));
+    }
+
+    @Test
+    public void detectionSampler_isTurningDownReportedEntitiesWithAdaptiveSampling() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setSamplingStrategy("ADAPTIVE");
+        properties.setMinSamplingRate(0);
+        DetectionSampler detectionSampler = new DetectionSampler(properties);
+
+        assertThat(detectionSampler.sampleEntity(ENTITY_NAME), is(true));
+
+        for (int i = 0; i < 64; i++) {
+            detectionSampler.reported(ENTITY_NAME);
+        }
+
+        assertThat(detectionSampler.sampleEntity(ENTITY_NAME), is(false));
+        assertThat(detectionSampler.sampleEntity("com.jpozarycki.utils.entity.Message"), is(true));
+    }
+}
@@ -0,0 +1,96 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.User;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class EntityCacheTest {
+    private static final int MESSAGE_COUNT = 5;
+
+    private SessionFactory sessionFactory;
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.build("entity-cache");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("EXCEPTION");
+        properties.setEntityCacheEnabled(true);
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void entityCache_isReturningCachedEntityWithoutQuery() {
+        String name = inSession(session -> session.get(User.class, 1L).getName());
+        QueryMetrics queryMetrics = new QueryMetrics();
+
+        String cachedName = inSession(queryMetrics, session -> session.get(User.class, 1L).getName());
+
+        assertThat(cachedName, is(name));
+        assertThat(queryMetrics.getStatementCount(), is(0L));
+    }
+
+    @Test
+    public void entityCache_isInitializingProxiesWithoutNPlusOneQueries() {
+        inSession(session -> session.createQuery("from User", User.class).list());
+        QueryMetrics queryMetrics = new QueryMetrics();
+
+        int authorCount = inSession(queryMetrics, session -> {
+            int count = 0;
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                message.getAuthor().getName();
+                count++;
+            }
+            return count;
+        });
+
+        assertThat(authorCount, is(MESSAGE_COUNT));
+        assertThat(queryMetrics.getStatementCount(), is(1L));
+    }
+
+    @Test
+    public void entityCache_isInvalidatingEntityFlushedDirty() {
+        inSession(session -> session.get(User.class, 1L).getName());
+        inSession(session -> {
+            session.get(User.class, 1L).setName("renamed");
+            return null;
+        });
+        QueryMetrics queryMetrics = new QueryMetrics();
+
+        String name = inSession(queryMetrics, session -> session.get(User.class, 1L).getName());
+
+        assertThat(name, is("renamed"));
+        assertThat(queryMetrics.getStatementCount(), is(1L));
+    }
+
+    private <T> T inSession(Function<Session, T> function) {
+        return inSession(new QueryMetrics(), function);
+    }
+
+    private <T> T inSession(QueryMetrics queryMetrics, Function<Session, T> function) {
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory, queryMetrics)) {
+            Transaction transaction = session.beginTransaction();
+            T result = function.apply(session);
+            transaction.commit();
+            return result;
+        }
+    }
+}
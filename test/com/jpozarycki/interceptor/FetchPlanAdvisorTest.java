@@ -0,0 +1,55 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.NPlusOneQueriesDetection.Hint;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class FetchPlanAdvisorTest {
+    private static final String USER = "com.jpozarycki.utils.entity.User";
+    private static final String MESSAGE = "com.jpozarycki.utils.entity.Message";
+
+    @Test
+    public void fetchPlanAdvisor_isRankingAdviceByQueriesSaved() {
+        FetchPlanAdvisor fetchPlanAdvisor = new FetchPlanAdvisor();
+        StackTraceElement origin = new StackTraceElement("com.jpozarycki.Controller", "list", "Controller.java", 42);
+
+        NPlusOneQueriesDetection userDetection =
+                NPlusOneQueriesDetection.onEntity(USER, origin, Hint.MISSING_EAGER_FETCHING);
+        NPlusOneQueriesDetection messageDetection =
+                NPlusOneQueriesDetection.onEntity(MESSAGE, null, Hint.MISSING_LAZY_FETCHING);
+
+        completeTransaction(fetchPlanAdvisor, userDetection, 20);
+        completeTransaction(fetchPlanAdvisor, userDetection, 20);
+        completeTransaction(fetchPlanAdvisor, messageDetection, 3);
+
+        List<FetchPlanAdvice> advice = fetchPlanAdvisor.advice();
+
+        assertThat(advice.size(), is(2));
+        FetchPlanAdvice userAdvice = advice.get(0);
+        assertThat(userAdvice.getEntityName(), is(USER));
+        assertThat(userAdvice.getOrigins(), is(Collections.singletonList(origin.toString())));
+        assertThat(userAdvice.getDetectedQueries(), is(40L));
+        assertThat(userAdvice.getTransactions(), is(2L));
+        assertThat(userAdvice.getMaxDetectedQueriesPerTransaction(), is(20L));
+        assertThat(userAdvice.getRecommendedBatchSize(), is(32));
+        assertThat(userAdvice.getQueriesSavedWithBatchSize(), is(38L));
+        assertThat(userAdvice.getQueriesSavedWithJoinFetch(), is(40L));
+        assertThat(advice.get(1).getEntityName(), is(MESSAGE));
+        assertThat(advice.get(1).getRecommendedBatchSize(), is(4));
+    }
+
+    private static void completeTransaction(FetchPlanAdvisor fetchPlanAdvisor, NPlusOneQueriesDetection detection,
+                                            int nPlusOneQueries) {
+        FetchPlanAdvisor.TransactionDetections transactionDetections = new FetchPlanAdvisor.TransactionDetections();
+        for (int i = 0; i < nPlusOneQueries; i++) {
+            fetchPlanAdvisor.detected(detection);
+            transactionDetections.detected(detection);
+        }
+        fetchPlanAdvisor.transactionCompleted(transactionDetections);
+    }
+}
@@ -0,0 +1,94 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.User;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class FlightRecorderEventsTest {
+    private static final int MESSAGE_COUNT = 3;
+
+    private SessionFactory sessionFactory;
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.build("flight-recorder-events");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isCommittingFlightRecorderEvents() throws IOException {
+        List<RecordedEvent> events = record(() -> {
+            try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+                Transaction transaction = session.beginTransaction();
+                for (Message message : session.createQuery("from Message", Message.class).list()) {
+                    message.getAuthor().getName();
+                }
+                transaction.commit();
+            }
+        });
+
+        List<RecordedEvent> nPlusOneQueriesEvents = ofType(events, "NPlusOneQueries");
+        assertThat(nPlusOneQueriesEvents.isEmpty(), is(false));
+        assertThat(nPlusOneQueriesEvents.get(0).getString("entityName"), is(User.class.getName()));
+        assertThat(nPlusOneQueriesEvents.get(0).getString("hint"), is("MISSING_EAGER_FETCHING"));
+        assertThat(nPlusOneQueriesEvents.get(0).getString("origin").startsWith(getClass().getName()), is(true));
+
+        List<RecordedEvent> statementPreparedEvents = ofType(events, "StatementPrepared");
+        assertThat(statementPreparedEvents.size(), is(1 + MESSAGE_COUNT));
+        assertThat(statementPreparedEvents.get(0).getString("fingerprint").startsWith("select"), is(true));
+
+        List<RecordedEvent> sessionEvents = ofType(events, "Session");
+        assertThat(sessionEvents.size(), is(1));
+        assertThat(sessionEvents.get(0).getLong("statementCount"), is((long) (1 + MESSAGE_COUNT)));
+    }
+
+    private static List<RecordedEvent> record(Runnable runnable) throws IOException {
+        Path file = Files.createTempFile("flight-recorder-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.jpozarycki.interceptor.NPlusOneQueries");
+            recording.enable("com.jpozarycki.interceptor.StatementPrepared");
+            recording.enable("com.jpozarycki.interceptor.Session");
+            recording.start();
+            runnable.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals("com.jpozarycki.interceptor." + name))
+                .collect(Collectors.toList());
+    }
+}
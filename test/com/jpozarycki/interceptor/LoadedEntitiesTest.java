@@ -0,0 +1,69 @@
+package com.jpozarycki.interceptor;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LoadedEntitiesTest {
+
+    @Test
+    public void loadedEntities_isTrackingIdsPerEntity() {
+        LoadedEntities loadedEntities = new LoadedEntities();
+        int userIndex = EntityNameIndex.indexOf("com.jpozarycki.utils.entity.User");
+        int messageIndex = EntityNameIndex.indexOf("com.jpozarycki.utils.entity.Message");
+
+        loadedEntities.add(userIndex, 1L);
+
+        assertThat(loadedEntities.contains(userIndex, 1L), is(true));
+        assertThat(loadedEntities.contains(userIndex, 1), is(true));
+        assertThat(loadedEntities.contains(messageIndex, 1L), is(false));
+
+        loadedEntities.remove(userIndex, 1L);
+
+        assertThat(loadedEntities.contains(userIndex, 1L), is(false));
+    }
+
+    @Test
+    public void loadedEntities_isTrackingNonIntegralIds() {
+        LoadedEntities loadedEntities = new LoadedEntities();
+        int userIndex = EntityNameIndex.indexOf("com.jpozarycki.utils.entity.User");
+        UUID id = UUID.randomUUID();
+
+        loadedEntities.add(userIndex, id);
+        loadedEntities.add(userIndex, 0L);
+
+        assertThat(loadedEntities.contains(userIndex, id), is(true));
+        assertThat(loadedEntities.contains(userIndex, 0L), is(true));
+
+        loadedEntities.clear();
+
+        assertThat(loadedEntities.contains(userIndex, id), is(false));
+        assertThat(loadedEntities.contains(userIndex, 0L), is(false));
+    }
+
+    @Test
+    public void longHashSet_isConsistentWithHashSetAfterRandomAddsAndRemoves() {
+        LongHashSet longHashSet = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextInt(2_000);
+            if (random.nextBoolean()) {
+                assertThat(longHashSet.add(value), is(expected.add(value)));
+            } else {
+                assertThat(longHashSet.remove(value), is(expected.remove(value)));
+            }
+        }
+
+        for (long value = 0; value < 2_000; value++) {
+            assertThat(longHashSet.contains(value), is(expected.contains(value)));
+        }
+    }
+}
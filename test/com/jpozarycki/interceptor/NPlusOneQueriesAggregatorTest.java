@@ -0,0 +1,107 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.NPlusOneQueriesDetection.Hint;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
+
+public class NPlusOneQueriesAggregatorTest {
+    private static final String ENTITY_NAME = "com.jpozarycki.utils.entity.User";
+    private static final Pattern OCCURRENCES = Pattern.compile("Occurrences: (\\d+) ");
+
+    @Test
+    public void nPlusOneQueriesAggregator_isReportingOneSummaryPerCallSite() {
+        List<String> reports = new ArrayList<>();
+        NPlusOneQueriesDetection detection = NPlusOneQueriesDetection.onEntity(
+                ENTITY_NAME,
+                new StackTraceElement("com.jpozarycki.Controller", "list", "Controller.java", 42),
+                Hint.MISSING_EAGER_FETCHING
+        );
+
+        try (NPlusOneQueriesAggregator aggregator =
+                     new NPlusOneQueriesAggregator(Duration.ofHours(1), 10, reports::add)) {
+            for (int i = 0; i < 500; i++) {
+                aggregator.record(detection);
+            }
+            aggregator.flush();
+        }
+
+        assertThat(reports.size(), is(1));
+        assertThat(reports.get(0), containsString("    at com.jpozarycki.Controller.list(Controller.java:42)\n"));
+        assertThat(reports.get(0), containsString("    Occurrences: 500 in the last PT1H\n"));
+    }
+
+    @Test
+    public void nPlusOneQueriesAggregator_isNotLosingOccurrencesRecordedWhileFlushing() throws InterruptedException {
+        int occurrenceCount = 200_000;
+        List<String> reports = new ArrayList<>();
+        NPlusOneQueriesDetection detection = NPlusOneQueriesDetection.onEntity(
+                ENTITY_NAME, null, Hint.MISSING_EAGER_FETCHING
+        );
+
+        try (NPlusOneQueriesAggregator aggregator =
+                     new NPlusOneQueriesAggregator(Duration.ofHours(1), 10, reports::add)) {
+            Thread recorder = new Thread(() -> {
+                for (int i = 0; i < occurrenceCount; i++) {
+                    aggregator.record(detection);
+                }
+            });
+            recorder.start();
+            while (recorder.isAlive()) {
+                aggregator.flush();
+            }
+            recorder.join();
+        }
+
+        long reportedOccurrences = 0;
+        for (String report : reports) {
+            Matcher matcher = OCCURRENCES.matcher(report);
+            if (matcher.find()) {
+                reportedOccurrences += Long.parseLong(matcher.group(1));
+            }
+        }
+        assertThat(reportedOccurrences, is((long) occurrenceCount));
+    }
+
+    @Test
+    public void nPlusOneQueriesAggregator_isDroppingCallSitesBeyondTheLimit() {
+        List<String> reports = new ArrayList<>();
+
+        try (NPlusOneQueriesAggregator aggregator =
+                     new NPlusOneQueriesAggregator(Duration.ofHours(1), 1, reports::add)) {
+            aggregator.record(NPlusOneQueriesDetection.onEntity(ENTITY_NAME, null, Hint.MISSING_EAGER_FETCHING));
+            aggregator.record(NPlusOneQueriesDetection.onEntity(ENTITY_NAME, null, Hint.MISSING_LAZY_FETCHING));
+            aggregator.flush();
+        }
+
+        assertThat(reports.size(), is(2));
+        assertThat(reports.get(1), is("N+1 queries detected 1 times on call sites beyond the limit of 1 call sites " +
+                "in the last PT1H\n"));
+    }
+
+    @Test
+    public void nPlusOneQueriesAggregator_isReportingLastWindowOnClose() {
+        List<String> reports = new ArrayList<>();
+
+        try (NPlusOneQueriesAggregator aggregator =
+                     new NPlusOneQueriesAggregator(Duration.ofMillis(500), 10, reports::add)) {
+            aggregator.record(NPlusOneQueriesDetection.onEntity(ENTITY_NAME, null, Hint.MISSING_EAGER_FETCHING));
+        }
+
+        assertThat(reports.size(), is(1));
+        assertThat(reports.get(0), containsString("    Occurrences: 1 in the last PT0.5S\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hibernateQueryInterceptorProperties_isRejectingAggregationWindowBelowOneMillisecond() {
+        new HibernateQueryInterceptorProperties().setAggregationWindow(Duration.ofNanos(500));
+    }
+}
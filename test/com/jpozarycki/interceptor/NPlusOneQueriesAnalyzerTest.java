@@ -0,0 +1,104 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.NPlusOneQueriesDetection.Hint;
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.User;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class NPlusOneQueriesAnalyzerTest {
+    private static final int MESSAGE_COUNT = 5;
+
+    private SessionFactory sessionFactory;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.build("n-plus-one-queries-analyzer");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void nPlusOneQueriesAnalyzer_isDetectingNPlusOneQueriesOffTheRequestThread() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor(10_000);
+
+        readAuthors(hibernateQueryInterceptor);
+
+        NPlusOneQueriesAnalyzer analyzer = hibernateQueryInterceptor.getNPlusOneQueriesAnalyzer();
+        assertThat(analyzer.awaitAnalysis(Duration.ofSeconds(10)), is(true));
+        hibernateQueryInterceptor.close();
+        List<FetchPlanAdvice> advice = hibernateQueryInterceptor.getFetchPlanAdvisor().advice();
+        assertThat(advice.size(), is(1));
+        assertThat(advice.get(0).getEntityName(), is(User.class.getName()));
+        assertThat(advice.get(0).getHint(), is(Hint.MISSING_EAGER_FETCHING.name()));
+        assertThat(advice.get(0).getTransactions(), is(1L));
+        assertThat(advice.get(0).getOrigins().iterator().next().startsWith(getClass().getName()), is(true));
+    }
+
+    @Test
+    public void nPlusOneQueriesAnalyzer_isDroppingCallsBeyondTheQueueCapacity() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor(0);
+
+        readAuthors(hibernateQueryInterceptor);
+
+        NPlusOneQueriesAnalyzer analyzer = hibernateQueryInterceptor.getNPlusOneQueriesAnalyzer();
+        assertThat(analyzer.awaitAnalysis(Duration.ofSeconds(10)), is(true));
+        hibernateQueryInterceptor.close();
+        assertThat(hibernateQueryInterceptor.getFetchPlanAdvisor().advice().isEmpty(), is(true));
+    }
+
+    @Test
+    public void nPlusOneQueriesAnalyzer_isStoppingItsThreadWhenInterceptorIsClosed() throws InterruptedException {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor(10_000);
+
+        hibernateQueryInterceptor.close();
+
+        NPlusOneQueriesAnalyzer analyzer = hibernateQueryInterceptor.getNPlusOneQueriesAnalyzer();
+        assertThat(analyzer.awaitTermination(Duration.ofSeconds(10)), is(true));
+    }
+
+    @Test
+    public void nPlusOneQueriesAnalyzer_isAnalyzingQueuedCallsWhenInterceptorIsClosed() throws InterruptedException {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor(10_000);
+
+        readAuthors(hibernateQueryInterceptor);
+        hibernateQueryInterceptor.close();
+
+        NPlusOneQueriesAnalyzer analyzer = hibernateQueryInterceptor.getNPlusOneQueriesAnalyzer();
+        assertThat(analyzer.awaitTermination(Duration.ofSeconds(10)), is(true));
+        assertThat(hibernateQueryInterceptor.getFetchPlanAdvisor().advice().size(), is(1));
+    }
+
+    private static HibernateQueryInterceptor newInterceptor(int queueCapacity) {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAsyncAnalysisEnabled(true);
+        properties.setAsyncAnalysisQueueCapacity(queueCapacity);
+        return new HibernateQueryInterceptor(properties);
+    }
+
+    private void readAuthors(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            Transaction transaction = session.beginTransaction();
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                message.getAuthor().getName();
+            }
+            transaction.commit();
+        }
+    }
+}
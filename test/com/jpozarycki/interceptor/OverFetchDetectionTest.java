@@ -0,0 +1,117 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.NPlusOneQueriesDetection.Hint;
+import com.jpozarycki.utils.entity.Comment;
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.Post;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class OverFetchDetectionTest {
+    private static final int CHILD_COUNT = 10;
+
+    private SessionFactory sessionFactory;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.buildWithRowCounting("over-fetch", EmptyInterceptor.INSTANCE);
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            Message message = new Message();
+            message.setText("text");
+            session.persist(message);
+            for (int i = 0; i < CHILD_COUNT; i++) {
+                Post post = new Post();
+                post.setMessage(message);
+                session.persist(post);
+
+                Comment comment = new Comment();
+                comment.setMessage(message);
+                session.persist(comment);
+            }
+            transaction.commit();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void overFetchDetection_isDetectingCartesianProductOfCollectionsFetchedWithJoin() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor();
+
+        List<Message> messages = query(
+                hibernateQueryInterceptor,
+                "select distinct m from Message m join fetch m.posts join fetch m.comments"
+        );
+
+        assertThat(messages.size(), is(1));
+        assertThat(messages.get(0).getPosts().size(), is(CHILD_COUNT));
+        List<FetchPlanAdvice> advice = hibernateQueryInterceptor.getFetchPlanAdvisor().advice();
+        assertThat(advice.size(), is(1));
+        assertThat(advice.get(0).getEntityName(), is(Message.class.getName()));
+        assertThat(advice.get(0).getHint(), is(Hint.CARTESIAN_PRODUCT.name()));
+        assertThat(advice.get(0).getQueriesSavedWithJoinFetch(), is(0L));
+        assertThat(advice.get(0).getOrigins().iterator().next().startsWith(getClass().getName()), is(true));
+    }
+
+    @Test
+    public void overFetchDetection_isNotDetectingSingleCollectionFetchedWithJoin() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor();
+
+        List<Message> messages = query(
+                hibernateQueryInterceptor,
+                "select distinct m from Message m join fetch m.posts"
+        );
+
+        assertThat(messages.get(0).getPosts().size(), is(CHILD_COUNT));
+        assertThat(hibernateQueryInterceptor.getFetchPlanAdvisor().advice().isEmpty(), is(true));
+    }
+
+    @Test
+    public void overFetchDetection_isNotDetectingQueryRereadingEntitiesManagedBySession() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newInterceptor();
+
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            Transaction transaction = session.beginTransaction();
+            List<Post> posts = session.createQuery("from Post", Post.class).list();
+            session.evict(posts.get(0));
+
+            List<Post> rereadPosts = session.createQuery("from Post", Post.class).list();
+            transaction.commit();
+
+            assertThat(rereadPosts.size(), is(CHILD_COUNT));
+        }
+        assertThat(hibernateQueryInterceptor.getFetchPlanAdvisor().advice().isEmpty(), is(true));
+    }
+
+    private static HibernateQueryInterceptor newInterceptor() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setOverFetchRatio(5);
+        properties.setOverFetchMinRows(CHILD_COUNT);
+        return new HibernateQueryInterceptor(properties);
+    }
+
+    private List<Message> query(HibernateQueryInterceptor hibernateQueryInterceptor, String query) {
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            Transaction transaction = session.beginTransaction();
+            List<Message> messages = session.createQuery(query, Message.class).list();
+            transaction.commit();
+            return messages;
+        }
+    }
+}
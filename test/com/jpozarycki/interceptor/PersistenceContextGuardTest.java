@@ -0,0 +1,142 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.exceptions.PersistenceContextTooLargeException;
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.User;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class PersistenceContextGuardTest {
+    private static final int MESSAGE_COUNT = 5;
+
+    private SessionFactory sessionFactory;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.build("persistence-context-guard");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void persistenceContextGuard_isThrowingWhenSessionManagesTooManyEntities() {
+        HibernateQueryInterceptorProperties properties = newProperties();
+        properties.setMaxManagedEntities(MESSAGE_COUNT - 1);
+
+        PersistenceContextTooLargeException exception = inSession(properties, session -> {
+            session.createQuery("from Message", Message.class).list();
+        });
+
+        assertThat(exception.getMessage().startsWith("Large persistence context detected, " + MESSAGE_COUNT +
+                " entities managed by the session above the limit of " + (MESSAGE_COUNT - 1)), is(true));
+        assertThat(exception.getMessage().contains("at " + getClass().getName()), is(true));
+    }
+
+    @Test
+    public void persistenceContextGuard_isNotThrowingWhenSessionIsClearedBelowTheLimit() {
+        HibernateQueryInterceptorProperties properties = newProperties();
+        properties.setMaxManagedEntities(MESSAGE_COUNT);
+
+        PersistenceContextTooLargeException exception = inSession(properties, session -> {
+            session.createQuery("from Message", Message.class).list();
+            session.clear();
+            session.createQuery("from User", User.class).list();
+        });
+
+        assertThat(exception == null, is(true));
+    }
+
+    @Test
+    public void persistenceContextGuard_isThrowingWhenFlushIsTooSlow() {
+        HibernateQueryInterceptorProperties properties = newProperties();
+        properties.setMaxFlushDuration(Duration.ofNanos(1));
+
+        PersistenceContextTooLargeException exception = inSession(properties, session -> {
+            List<User> users = session.createQuery("from User", User.class).list();
+            users.get(0).setName("renamed");
+            session.flush();
+        });
+
+        assertThat(exception.getMessage().contains("to dirty-check " + MESSAGE_COUNT +
+                " managed entities, of which 1 were dirty"), is(true));
+    }
+
+    @Test
+    public void persistenceContextGuard_isCountingManagedEntitiesOfBoundSessionWithoutIteratingThem() {
+        HibernateQueryInterceptorProperties properties = newProperties();
+        properties.setMaxManagedEntities(MESSAGE_COUNT - 1);
+        PersistenceContextGuard persistenceContextGuard = new PersistenceContextGuard(properties);
+        Iterator<Object> entities = new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                throw new AssertionError("Entities iterated");
+            }
+
+            @Override
+            public Object next() {
+                throw new AssertionError("Entities iterated");
+            }
+        };
+
+        try (Session session = sessionFactory.openSession()) {
+            session.createQuery("from Message", Message.class).list();
+            persistenceContextGuard.flushStarted(
+                    new PersistenceContextUsage(), session.unwrap(SessionImplementor.class), entities
+            );
+            assert false;
+        } catch (PersistenceContextTooLargeException exception) {
+            assertThat(exception.getMessage().startsWith("Large persistence context detected, " + MESSAGE_COUNT +
+                    " entities managed by the session"), is(true));
+        }
+    }
+
+    private static HibernateQueryInterceptorProperties newProperties() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("EXCEPTION");
+        return properties;
+    }
+
+    /**
+     * Run the consumer in a session intercepted with the properties
+     *
+     * @return Exception thrown by the guard, null if none
+     */
+    private PersistenceContextTooLargeException inSession(HibernateQueryInterceptorProperties properties,
+                                                          Consumer<Session> consumer) {
+        HibernateQueryInterceptor hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                consumer.accept(session);
+                return null;
+            } catch (RuntimeException exception) {
+                for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof PersistenceContextTooLargeException) {
+                        return (PersistenceContextTooLargeException) cause;
+                    }
+                }
+                throw exception;
+            } finally {
+                transaction.rollback();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ProxyBatchInitializationTest {
+    private static final int MESSAGE_COUNT = 10;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sessionFactory = TestSessionFactory.build("proxy-batch-initialization");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isExecutingNPlusOneQueriesWithoutAutoBatchInitialization() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+
+        assertThat(countStatementsReadingAuthors(new HibernateQueryInterceptor(properties)), is(MESSAGE_COUNT + 1L));
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isInitializingProxiesInBatchWithAutoBatchInitialization() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAutoBatchInitialization(true);
+
+        assertThat(countStatementsReadingAuthors(new HibernateQueryInterceptor(properties)), is(2L));
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isInitializingRemainingProxiesInNextBatches() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAutoBatchInitialization(true);
+        properties.setAutoBatchInitializationSize(4);
+
+        // 1 query for the messages then 3 batches of at most 4 authors
+        assertThat(countStatementsReadingAuthors(new HibernateQueryInterceptor(properties)), is(4L));
+    }
+
+    private static long countStatementsReadingAuthors(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        try (Session session = sessionFactory.withOptions().interceptor(hibernateQueryInterceptor).openSession()) {
+            hibernateQueryInterceptor.bindSession(session);
+            QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+            Transaction transaction = session.beginTransaction();
+
+            List<Message> messages = session.createQuery("from Message", Message.class).list();
+            List<String> names = messages.stream()
+                    .map(message -> message.getAuthor().getName())
+                    .collect(Collectors.toList());
+
+            assertThat(names.size(), is(MESSAGE_COUNT));
+            transaction.commit();
+            return queryMetrics.getStatementCount();
+        } finally {
+            hibernateQueryInterceptor.stopQueryMetrics();
+            hibernateQueryInterceptor.unbindSession();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class QueryInterceptorMetricsTest {
+    private static final int MESSAGE_COUNT = 5;
+
+    private static SessionFactory sessionFactory;
+
+    private SimpleMeterRegistry meterRegistry;
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sessionFactory = TestSessionFactory.build("query-interceptor-metrics");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        sessionFactory.close();
+    }
+
+    @Before
+    public void setUp() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        meterRegistry = new SimpleMeterRegistry();
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(
+                properties, new QueryInterceptorMetrics(meterRegistry)
+        );
+    }
+
+    @Test
+    public void queryInterceptorMetrics_isCountingNPlusOneQueriesByEntityAndHint() {
+        readAuthors();
+
+        double detections = meterRegistry.get("hibernate.query.n-plus-one")
+                .tag("entity", "com.jpozarycki.utils.entity.User")
+                .tag("hint", "MISSING_EAGER_FETCHING")
+                .counter()
+                .count();
+        assertThat(detections, is((double) MESSAGE_COUNT));
+    }
+
+    @Test
+    public void queryInterceptorMetrics_isTimingSessionsAndCallbacks() {
+        readAuthors();
+
+        assertThat(meterRegistry.get("hibernate.session.open").timer().count(), is(1L));
+        long getEntityCount = meterRegistry.get("hibernate.query.interceptor.callback")
+                .tag("callback", "getEntity")
+                .timer()
+                .count();
+        assertThat(getEntityCount >= 2L * MESSAGE_COUNT, is(true));
+        assertThat(
+                meterRegistry.get("hibernate.query.interceptor.callback")
+                        .tag("callback", "onPrepareStatement")
+                        .timer()
+                        .count(),
+                is(MESSAGE_COUNT + 1L)
+        );
+    }
+
+    @Test
+    public void queryInterceptorMetrics_isRecordingStatementsPerRequest() {
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+        readAuthors();
+        hibernateQueryInterceptor.stopQueryMetrics();
+
+        hibernateQueryInterceptor.getQueryInterceptorMetrics().requestCompleted(queryMetrics);
+
+        assertThat(meterRegistry.get("hibernate.query.statements").summary().totalAmount(), is(MESSAGE_COUNT + 1.0));
+    }
+
+    private void readAuthors() {
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            Transaction transaction = session.beginTransaction();
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                message.getAuthor().getName();
+            }
+            transaction.commit();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.interceptor.QueryMetrics.StatementType;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class QueryMetricsTest {
+
+    private final HibernateQueryInterceptor hibernateQueryInterceptor =
+            new HibernateQueryInterceptor(new HibernateQueryInterceptorProperties());
+
+    @Test
+    public void statementType_isReadFromTheFirstKeyword() {
+        assertThat(StatementType.of("select m.id from messages m"), is(StatementType.SELECT));
+        assertThat(StatementType.of("  /* load Message */ SELECT 1"), is(StatementType.SELECT));
+        assertThat(StatementType.of("-- comment\ninsert into users (name) values (?)"), is(StatementType.INSERT));
+        assertThat(StatementType.of("update users set name=? where id=?"), is(StatementType.UPDATE));
+        assertThat(StatementType.of("delete from users where id=?"), is(StatementType.DELETE));
+        assertThat(StatementType.of("call next value for hibernate_sequence"), is(StatementType.OTHER));
+    }
+
+    @Test
+    public void queryMetrics_areCountingStatementsByTypeOnceStarted() {
+        hibernateQueryInterceptor.onPrepareStatement("select * from users");
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+
+        hibernateQueryInterceptor.onPrepareStatement("select * from messages");
+        hibernateQueryInterceptor.inspect("insert into users (name) values (?)");
+
+        assertThat(queryMetrics.getStatementCount(), is(2L));
+        assertThat(queryMetrics.getStatementCount(StatementType.SELECT), is(1L));
+        assertThat(queryMetrics.getStatementCount(StatementType.INSERT), is(1L));
+        assertThat(hibernateQueryInterceptor.getQueryCount(), is(2L));
+
+        hibernateQueryInterceptor.stopQueryMetrics();
+
+        assertThat(hibernateQueryInterceptor.getQueryCount(), is(nullValue()));
+    }
+}
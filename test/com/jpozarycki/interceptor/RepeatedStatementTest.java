@@ -0,0 +1,44 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.exceptions.NPlusOneQueriesException;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
+
+public class RepeatedStatementTest {
+
+    @Test
+    public void sqlFingerprints_areIgnoringLiteralsAndInListSizes() {
+        assertThat(
+                SqlFingerprints.normalize("select u.name  from users u\n where u.id = 42 and u.name = 'O''Neil'"),
+                is("select u.name from users u where u.id = ? and u.name = ?")
+        );
+        assertThat(
+                SqlFingerprints.normalize("select m1_.id from messages m1_ where m1_.author_id in (?, ?, ?)"),
+                is(SqlFingerprints.normalize("select m1_.id from messages m1_ where m1_.author_id in (?)"))
+        );
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isDetectingNPlusOneQueriesOnRepeatedStatement() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("EXCEPTION");
+        properties.setRepeatedStatementThreshold(2);
+        HibernateQueryInterceptor hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+
+        hibernateQueryInterceptor.onPrepareStatement("select name from users where id = 1");
+        hibernateQueryInterceptor.onPrepareStatement("select name from users where id = 2");
+
+        try {
+            hibernateQueryInterceptor.onPrepareStatement("select name from users where id = 3");
+            assert false;
+        } catch (NPlusOneQueriesException exception) {
+            assertThat(exception.getMessage(), containsString("    Statement: select name from users where id = ?\n"));
+        }
+
+        hibernateQueryInterceptor.afterTransactionCompletion(null);
+        hibernateQueryInterceptor.onPrepareStatement("select name from users where id = 4");
+    }
+}
@@ -0,0 +1,88 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class SecondLevelCacheTest {
+    private static final int MESSAGE_COUNT = 5;
+    private static final String USER_ENTITY = "com.jpozarycki.utils.entity.User";
+
+    private SessionFactory sessionFactory;
+    private SimpleMeterRegistry meterRegistry;
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.buildWithSecondLevelCache("second-level-cache", EmptyInterceptor.INSTANCE);
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+        sessionFactory.getCache().evictAllRegions();
+
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        meterRegistry = new SimpleMeterRegistry();
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(
+                properties, new QueryInterceptorMetrics(meterRegistry)
+        );
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isReportingNPlusOneQueriesOnCacheMisses() {
+        long statementCount = readAuthors();
+
+        assertThat(statementCount, is(MESSAGE_COUNT + 1L));
+        assertThat(countDetections(), is((double) MESSAGE_COUNT));
+        assertThat(countCacheRequests("miss"), is((double) MESSAGE_COUNT));
+    }
+
+    @Test
+    public void hibernateQueryInterceptor_isNotReportingNPlusOneQueriesOnCacheHits() {
+        readAuthors();
+        double detectionsOnMisses = countDetections();
+
+        long statementCount = readAuthors();
+
+        assertThat(statementCount, is(1L));
+        assertThat(countDetections(), is(detectionsOnMisses));
+        assertThat(countCacheRequests("hit"), is((double) MESSAGE_COUNT));
+    }
+
+    private long readAuthors() {
+        QueryMetrics queryMetrics = new QueryMetrics();
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory, queryMetrics)) {
+            Transaction transaction = session.beginTransaction();
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                message.getAuthor().getName();
+            }
+            transaction.commit();
+        }
+        return queryMetrics.getStatementCount();
+    }
+
+    private double countDetections() {
+        return meterRegistry.get("hibernate.query.n-plus-one").tag("entity", USER_ENTITY).counter().count();
+    }
+
+    private double countCacheRequests(String result) {
+        return meterRegistry.get("hibernate.query.second-level-cache")
+                .tag("entity", USER_ENTITY)
+                .tag("result", result)
+                .counter()
+                .count();
+    }
+}
@@ -0,0 +1,107 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class SessionQueryInterceptorConcurrencyTest {
+    private static final String USER = "com.jpozarycki.utils.entity.User";
+    private static final int MESSAGE_COUNT = 10;
+    private static final int THREAD_COUNT = 16;
+    private static final int SESSIONS_PER_THREAD = 25;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sessionFactory = TestSessionFactory.build("session-query-interceptor-concurrency");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void sessionQueryInterceptor_isKeepingStateOfParallelSessionsApart() throws Exception {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newHibernateQueryInterceptor();
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executorService.submit(() -> {
+                    List<Long> statementCounts = new ArrayList<>();
+                    for (int j = 0; j < SESSIONS_PER_THREAD; j++) {
+                        QueryMetrics queryMetrics = new QueryMetrics();
+                        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory, queryMetrics)) {
+                            readAuthors(session);
+                        }
+                        statementCounts.add(queryMetrics.getStatementCount());
+                    }
+                    return statementCounts;
+                }));
+            }
+
+            for (Future<List<Long>> future : futures) {
+                for (Long statementCount : future.get()) {
+                    assertThat(statementCount, is(MESSAGE_COUNT + 1L));
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        FetchPlanAdvice advice = hibernateQueryInterceptor.getFetchPlanAdvisor().advice().get(0);
+        assertThat(advice.getEntityName(), is(USER));
+        assertThat(advice.getTransactions(), is((long) THREAD_COUNT * SESSIONS_PER_THREAD));
+        assertThat(advice.getDetectedQueries(), is((long) THREAD_COUNT * SESSIONS_PER_THREAD * MESSAGE_COUNT));
+        assertThat(advice.getMaxDetectedQueriesPerTransaction(), is((long) MESSAGE_COUNT));
+    }
+
+    @Test
+    public void sessionQueryInterceptor_isFollowingSessionAcrossThreads() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = newHibernateQueryInterceptor();
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            CompletableFuture.runAsync(() -> readAuthors(session)).join();
+        } finally {
+            hibernateQueryInterceptor.stopQueryMetrics();
+        }
+
+        assertThat(queryMetrics.getStatementCount(), is(MESSAGE_COUNT + 1L));
+        assertThat(hibernateQueryInterceptor.getFetchPlanAdvisor().advice().get(0).getDetectedQueries(),
+                is((long) MESSAGE_COUNT));
+    }
+
+    private static HibernateQueryInterceptor newHibernateQueryInterceptor() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setAggregationWindow(Duration.ofHours(1));
+        return new HibernateQueryInterceptor(properties);
+    }
+
+    private static void readAuthors(Session session) {
+        Transaction transaction = session.beginTransaction();
+        for (Message message : session.createQuery("from Message", Message.class).list()) {
+            message.getAuthor().getName();
+        }
+        transaction.commit();
+    }
+}
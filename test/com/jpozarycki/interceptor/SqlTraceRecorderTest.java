@@ -0,0 +1,112 @@
+package com.jpozarycki.interceptor;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class SqlTraceRecorderTest {
+    private static final int MESSAGE_COUNT = 5;
+
+    private static SessionFactory sessionFactory;
+
+    private HibernateQueryInterceptorProperties properties;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sessionFactory = TestSessionFactory.build("sql-trace-recorder");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        sessionFactory.close();
+    }
+
+    @Before
+    public void setUp() {
+        properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setSqlTraceEnabled(true);
+    }
+
+    @Test
+    public void sqlTraceRecorder_isTracingStatementsOfRequest() {
+        HibernateQueryInterceptor hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+
+        SqlTrace sqlTrace = hibernateQueryInterceptor.startSqlTrace("GET", "/messages");
+        try {
+            readAuthors(hibernateQueryInterceptor);
+        } finally {
+            hibernateQueryInterceptor.stopSqlTrace();
+        }
+        hibernateQueryInterceptor.getSqlTraceRecorder().completed(sqlTrace);
+
+        List<TracedRequest> tracedRequests = hibernateQueryInterceptor.getSqlTraceRecorder().slowest(10);
+        assertThat(tracedRequests.size(), is(1));
+        TracedRequest tracedRequest = tracedRequests.get(0);
+        assertThat(tracedRequest.getPath(), is("/messages"));
+        assertThat(tracedRequest.getStatementCount(), is(MESSAGE_COUNT + 1));
+
+        TracedStatement messagesStatement = tracedRequest.getStatements().get(0);
+        assertThat(messagesStatement.getType(), is("SELECT"));
+        assertThat(messagesStatement.getRows(), is(MESSAGE_COUNT));
+        assertThat(messagesStatement.getOrigin().startsWith(SqlTraceRecorderTest.class.getName()), is(true));
+        assertThat(tracedRequest.getStatements().get(1).getRows(), is(1));
+    }
+
+    @Test
+    public void sqlTraceRecorder_isKeepingLastRequestsUpToCapacity() {
+        properties.setSqlTraceCapacity(2);
+        properties.setSqlTraceMaxStatements(1);
+        HibernateQueryInterceptor hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+
+        for (int i = 0; i < 3; i++) {
+            SqlTrace sqlTrace = hibernateQueryInterceptor.startSqlTrace("GET", "/messages/" + i);
+            try {
+                readAuthors(hibernateQueryInterceptor);
+            } finally {
+                hibernateQueryInterceptor.stopSqlTrace();
+            }
+            hibernateQueryInterceptor.getSqlTraceRecorder().completed(sqlTrace);
+        }
+
+        List<TracedRequest> tracedRequests = hibernateQueryInterceptor.getSqlTraceRecorder().slowest(10);
+        assertThat(tracedRequests.size(), is(2));
+        for (TracedRequest tracedRequest : tracedRequests) {
+            assertThat(tracedRequest.getPath().equals("/messages/0"), is(false));
+            assertThat(tracedRequest.getStatements().size(), is(1));
+            assertThat(tracedRequest.getDroppedStatements(), is(MESSAGE_COUNT));
+        }
+    }
+
+    @Test
+    public void sqlTraceRecorder_isNotTracingWhenDisabled() {
+        properties.setSqlTraceEnabled(false);
+        HibernateQueryInterceptor hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+
+        assertThat(hibernateQueryInterceptor.startSqlTrace("GET", "/messages"), is(nullValue()));
+        assertThat(hibernateQueryInterceptor.getSqlTraceRecorder().slowest(10).isEmpty(), is(true));
+    }
+
+    private static void readAuthors(HibernateQueryInterceptor hibernateQueryInterceptor) {
+        try (Session session = hibernateQueryInterceptor.openSession(sessionFactory)) {
+            Transaction transaction = session.beginTransaction();
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                message.getAuthor().getName();
+            }
+            transaction.commit();
+        }
+    }
+}
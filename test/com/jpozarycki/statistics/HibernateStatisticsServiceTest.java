@@ -0,0 +1,84 @@
+package com.jpozarycki.statistics;
+
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.User;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class HibernateStatisticsServiceTest {
+    private static final int MESSAGE_COUNT = 4;
+
+    private SessionFactory sessionFactory;
+    private HibernateStatisticsService hibernateStatisticsService;
+
+    @Before
+    public void setUp() {
+        sessionFactory = TestSessionFactory.build("hibernate-statistics");
+        TestSessionFactory.insertMessages(sessionFactory, MESSAGE_COUNT);
+        hibernateStatisticsService = new HibernateStatisticsService(false, Duration.ofHours(1), 10);
+        hibernateStatisticsService.register(sessionFactory);
+    }
+
+    @After
+    public void tearDown() {
+        hibernateStatisticsService.close();
+        sessionFactory.close();
+    }
+
+    @Test
+    public void hibernateStatisticsService_isReportingHotSpotsOfTheWindow() {
+        hibernateStatisticsService.setEnabled(true);
+
+        readAuthors();
+        HibernateStatisticsSnapshot snapshot = hibernateStatisticsService.snapshot();
+
+        assertThat(snapshot.getEntityFetches(), is((long) MESSAGE_COUNT));
+        assertThat(snapshot.getQueryExecutions(), is(1L));
+        assertThat(snapshot.getEntities().get(0).getEntityName(), is(User.class.getName()));
+        assertThat(snapshot.getEntities().get(0).getFetches(), is((long) MESSAGE_COUNT));
+        assertThat(snapshot.getQueries().size(), is(1));
+        assertThat(snapshot.getQueries().get(0).getRows(), is((long) MESSAGE_COUNT));
+        assertThat(hibernateStatisticsService.getLatestSnapshot(), is(snapshot));
+
+        HibernateStatisticsSnapshot nextSnapshot = hibernateStatisticsService.snapshot();
+
+        assertThat(nextSnapshot.getEntityFetches(), is(0L));
+        assertThat(nextSnapshot.getEntities().isEmpty(), is(true));
+        assertThat(nextSnapshot.getQueries().isEmpty(), is(true));
+    }
+
+    @Test
+    public void hibernateStatisticsService_isNotCollectingWhenDisabled() {
+        readAuthors();
+
+        assertThat(hibernateStatisticsService.snapshot(), is(nullValue()));
+        assertThat(sessionFactory.getStatistics().isStatisticsEnabled(), is(false));
+        assertThat(sessionFactory.getStatistics().getEntityFetchCount(), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hibernateStatisticsService_isRejectingIntervalBelowOneMillisecond() {
+        new HibernateStatisticsService(false, Duration.ZERO, 10);
+    }
+
+    private void readAuthors() {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            for (Message message : session.createQuery("from Message", Message.class).list()) {
+                message.getAuthor().getName();
+            }
+            transaction.commit();
+        }
+    }
+}
@@ -1,16 +1,44 @@
 package com.jpozarycki.utils.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface BaseDao<T> {
 
     void create(T entity);
 
+    /**
+     * Insert the entities with JDBC batching, flushing and clearing the session by chunk
+     */
+    void createAll(Collection<T> entities);
+
     void update(T entity);
 
+    /**
+     * Update the detached entities with JDBC batching, flushing and clearing the session by chunk
+     */
+    void updateAll(Collection<T> entities);
+
     List<T> findAll();
 
+    /**
+     * Stream all the entities in id order, fetching the rows by fetchSize and evicting each entity once consumed,
+     * the stream must be closed
+     */
+    Stream<T> streamAll(int fetchSize);
+
+    /**
+     * Find the page of at most limit entities following afterId in id order, null for the first page
+     */
+    List<T> findPage(Integer afterId, int limit);
+
     T findById(Integer id);
 
     void deleteById(Integer id);
+
+    /**
+     * Delete the entities with a bulk delete statement by chunk of ids
+     */
+    void deleteAllById(Collection<Integer> ids);
 }
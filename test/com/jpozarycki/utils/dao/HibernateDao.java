@@ -0,0 +1,228 @@
+package com.jpozarycki.utils.dao;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.SessionQueryInterceptor;
+import com.jpozarycki.utils.persistence.SessionProvider;
+import org.hibernate.Interceptor;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.Query;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Data access of an entity through the sessions of a {@link SessionProvider}
+ * <p>
+ * The bulk writes set the JDBC batch size of their session to the chunk size, and flush and clear the session after
+ * each chunk so that the persistence context never holds more than a chunk of entities. The entity must not use an
+ * IDENTITY id generator for its inserts to be batched.
+ * <p>
+ * The streaming and paginated reads scroll the rows and evict each entity once consumed, so that the persistence
+ * context stays empty whatever the number of rows read.
+ */
+public class HibernateDao<T> implements BaseDao<T> {
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+
+    private final SessionProvider sessionProvider;
+    private final Class<T> entityClass;
+    private final int chunkSize;
+
+    public HibernateDao(SessionProvider sessionProvider, Class<T> entityClass) {
+        this(sessionProvider, entityClass, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param sessionProvider Provider of the sessions
+     * @param entityClass     Class of the entity
+     * @param chunkSize       Number of entities of each JDBC batch and each flush of the bulk writes
+     */
+    public HibernateDao(SessionProvider sessionProvider, Class<T> entityClass, int chunkSize) {
+        this.sessionProvider = sessionProvider;
+        this.entityClass = entityClass;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void create(T entity) {
+        sessionProvider.withSession(session -> {
+            session.persist(entity);
+        });
+    }
+
+    @Override
+    public void createAll(Collection<T> entities) {
+        sessionProvider.withSession(session -> {
+            session.setJdbcBatchSize(chunkSize);
+            int count = 0;
+            for (T entity : entities) {
+                session.persist(entity);
+                if (++count % chunkSize == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void update(T entity) {
+        sessionProvider.withSession(session -> {
+            session.update(entity);
+        });
+    }
+
+    @Override
+    public void updateAll(Collection<T> entities) {
+        sessionProvider.withSession(session -> {
+            session.setJdbcBatchSize(chunkSize);
+            int count = 0;
+            for (T entity : entities) {
+                session.update(entity);
+                if (++count % chunkSize == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<T> findAll() {
+        return sessionProvider.withReadOnlySession(session -> {
+            return session.createQuery("from " + entityClass.getName(), entityClass).list();
+        });
+    }
+
+    @Override
+    public Stream<T> streamAll(int fetchSize) {
+        return sessionProvider.withReadOnlySessionStream(session -> {
+            ScrollableResults results = session
+                    .createQuery("from " + entityClass.getName() + " order by id", entityClass)
+                    .setFetchSize(fetchSize)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            return StreamSupport.stream(new EvictingSpliterator(session, results), false).onClose(results::close);
+        });
+    }
+
+    @Override
+    public List<T> findPage(Integer afterId, int limit) {
+        return sessionProvider.withReadOnlySession(session -> {
+            Query<T> query;
+            if (afterId == null) {
+                query = session.createQuery("from " + entityClass.getName() + " order by id", entityClass);
+            } else {
+                query = session
+                        .createQuery("from " + entityClass.getName() + " where id > :afterId order by id", entityClass)
+                        .setParameter("afterId", toIdentifier(session, afterId));
+            }
+
+            List<T> page = new ArrayList<>(limit);
+            query.setMaxResults(limit).setFetchSize(limit);
+            try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                Spliterator<T> spliterator = new EvictingSpliterator(session, results);
+                while (spliterator.tryAdvance(page::add)) {
+                    // Collect the detached entities of the page
+                }
+            }
+            return page;
+        });
+    }
+
+    @Override
+    public T findById(Integer id) {
+        return sessionProvider.withReadOnlySession(session -> {
+            return session.get(entityClass, toIdentifier(session, id));
+        });
+    }
+
+    @Override
+    public void deleteById(Integer id) {
+        sessionProvider.withSession(session -> {
+            session.createQuery("delete from " + entityClass.getName() + " where id = :id")
+                    .setParameter("id", toIdentifier(session, id))
+                    .executeUpdate();
+        });
+    }
+
+    @Override
+    public void deleteAllById(Collection<Integer> ids) {
+        sessionProvider.withSession(session -> {
+            List<Serializable> chunk = new ArrayList<>(chunkSize);
+            for (Integer id : ids) {
+                chunk.add(toIdentifier(session, id));
+                if (chunk.size() == chunkSize) {
+                    deleteChunk(session, chunk);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                deleteChunk(session, chunk);
+            }
+        });
+    }
+
+    private void deleteChunk(Session session, List<Serializable> ids) {
+        session.createQuery("delete from " + entityClass.getName() + " where id in (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * Convert the id to the type of the entity id, the ids of {@link BaseDao} being integers
+     */
+    private Serializable toIdentifier(Session session, Integer id) {
+        Class<?> idClass = session.getSessionFactory().getMetamodel().entity(entityClass).getIdType().getJavaType();
+        return idClass == Long.class ? Long.valueOf(id) : id;
+    }
+
+    /**
+     * Evict the entity from the session, and from the loaded entities of the N+1 queries detection if the session is
+     * intercepted by the {@link HibernateQueryInterceptor} or one of its {@link SessionQueryInterceptor}
+     */
+    private static void evict(Session session, Object entity) {
+        Interceptor interceptor = session.unwrap(SessionImplementor.class).getInterceptor();
+        if (interceptor instanceof SessionQueryInterceptor) {
+            ((SessionQueryInterceptor) interceptor)
+                    .onEvict(session.getEntityName(entity), session.getIdentifier(entity));
+        } else if (interceptor instanceof HibernateQueryInterceptor) {
+            ((HibernateQueryInterceptor) interceptor)
+                    .onEvict(session.getEntityName(entity), session.getIdentifier(entity));
+        }
+        session.evict(entity);
+    }
+
+    /**
+     * Spliterator over the entities of scrollable results, evicting each entity once consumed
+     */
+    private class EvictingSpliterator extends Spliterators.AbstractSpliterator<T> {
+        private final Session session;
+        private final ScrollableResults results;
+
+        EvictingSpliterator(Session session, ScrollableResults results) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.session = session;
+            this.results = results;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (!results.next()) {
+                return false;
+            }
+            T entity = entityClass.cast(results.get(0));
+            action.accept(entity);
+            evict(session, entity);
+            return true;
+        }
+    }
+}
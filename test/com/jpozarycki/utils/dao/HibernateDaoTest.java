@@ -0,0 +1,147 @@
+package com.jpozarycki.utils.dao;
+
+import com.jpozarycki.exceptions.NPlusOneQueriesException;
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties;
+import com.jpozarycki.interceptor.QueryMetrics;
+import com.jpozarycki.interceptor.QueryMetrics.StatementType;
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.persistence.SessionProvider;
+import com.jpozarycki.utils.persistence.TestSessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class HibernateDaoTest {
+    private static final int MESSAGE_COUNT = 1000;
+    private static final int CHUNK_SIZE = 50;
+
+    private HibernateQueryInterceptor hibernateQueryInterceptor;
+    private SessionProvider sessionProvider;
+    private HibernateDao<Message> messageDao;
+
+    @Before
+    public void setUp() {
+        hibernateQueryInterceptor = new HibernateQueryInterceptor(new HibernateQueryInterceptorProperties());
+        sessionProvider =
+                new SessionProvider(() -> TestSessionFactory.build("hibernate-dao", hibernateQueryInterceptor));
+        messageDao = new HibernateDao<>(sessionProvider, Message.class, CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        hibernateQueryInterceptor.stopQueryMetrics();
+        sessionProvider.close();
+    }
+
+    @Test
+    public void hibernateDao_isCountingEachInsertBatchAsOneStatement() {
+        List<Message> messages = newMessages();
+
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+        messageDao.createAll(messages);
+
+        assertThat(queryMetrics.getStatementCount(StatementType.INSERT), is((long) MESSAGE_COUNT / CHUNK_SIZE));
+        assertThat(messageDao.findAll().size(), is(MESSAGE_COUNT));
+    }
+
+    @Test
+    public void hibernateDao_isCountingEachUpdateBatchAsOneStatement() {
+        List<Message> messages = newMessages();
+        messageDao.createAll(messages);
+        messages.forEach(message -> message.setText("updated"));
+
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+        messageDao.updateAll(messages);
+
+        assertThat(queryMetrics.getStatementCount(), is((long) MESSAGE_COUNT / CHUNK_SIZE));
+        assertThat(messageDao.findById(messages.get(0).getId().intValue()).getText(), is("updated"));
+    }
+
+    @Test
+    public void hibernateDao_isDeletingByChunkOfIds() {
+        List<Message> messages = newMessages();
+        messageDao.createAll(messages);
+        List<Integer> ids = new ArrayList<>();
+        messages.forEach(message -> ids.add(message.getId().intValue()));
+
+        QueryMetrics queryMetrics = hibernateQueryInterceptor.startQueryMetrics();
+        messageDao.deleteAllById(ids);
+
+        assertThat(queryMetrics.getStatementCount(), is((long) MESSAGE_COUNT / CHUNK_SIZE));
+        assertThat(messageDao.findAll().size(), is(0));
+    }
+
+    @Test
+    public void hibernateDao_isStreamingAllEntitiesInIdOrder() {
+        messageDao.createAll(newMessages());
+
+        List<Long> ids;
+        try (Stream<Message> messages = messageDao.streamAll(100)) {
+            ids = messages.map(Message::getId).collect(Collectors.toList());
+        }
+
+        assertThat(ids.size(), is(MESSAGE_COUNT));
+        for (int i = 1; i < ids.size(); i++) {
+            assertThat(ids.get(i) > ids.get(i - 1), is(true));
+        }
+    }
+
+    @Test
+    public void hibernateDao_isPaginatingByKeyset() {
+        messageDao.createAll(newMessages());
+
+        List<Integer> pageSizes = new ArrayList<>();
+        Integer afterId = null;
+        List<Message> page = messageDao.findPage(afterId, 300);
+        while (!page.isEmpty()) {
+            pageSizes.add(page.size());
+            afterId = page.get(page.size() - 1).getId().intValue();
+            page = messageDao.findPage(afterId, 300);
+        }
+
+        assertThat(pageSizes, is(Arrays.asList(300, 300, 300, 100)));
+    }
+
+    @Test
+    public void hibernateDao_isDetectingNPlusOneQueriesWhileStreaming() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("EXCEPTION");
+        HibernateQueryInterceptor exceptionInterceptor = new HibernateQueryInterceptor(properties);
+        SessionProvider exceptionSessionProvider = new SessionProvider(
+                () -> TestSessionFactory.build("hibernate-dao-streaming", exceptionInterceptor)
+        );
+        try {
+            TestSessionFactory.insertMessages(exceptionSessionProvider.getSessionFactory(), 10);
+            HibernateDao<Message> exceptionMessageDao = new HibernateDao<>(exceptionSessionProvider, Message.class);
+
+            try (Stream<Message> messages = exceptionMessageDao.streamAll(5)) {
+                messages.forEach(message -> message.getAuthor().getName());
+                assert false;
+            } catch (NPlusOneQueriesException e) {
+                assertThat(e.getMessage().contains("com.jpozarycki.utils.entity.User"), is(true));
+            }
+        } finally {
+            exceptionSessionProvider.close();
+        }
+    }
+
+    private static List<Message> newMessages() {
+        List<Message> messages = new ArrayList<>(MESSAGE_COUNT);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            Message message = new Message();
+            message.setText("text" + i);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -1,13 +1,16 @@
 package com.jpozarycki.utils.entity;
 
 import javax.persistence.*;
+import java.util.HashSet;
+import java.util.Set;
 
 @Entity
 @Table(name = "messages")
 public class Message {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_seq")
+    @SequenceGenerator(name = "messages_seq", sequenceName = "messages_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "text")
@@ -17,6 +20,12 @@ public class Message {
     @JoinColumn(name = "author_id")
     private User author;
 
+    @OneToMany(mappedBy = "message")
+    private Set<Post> posts = new HashSet<>();
+
+    @OneToMany(mappedBy = "message")
+    private Set<Comment> comments = new HashSet<>();
+
     public Message() {
     }
 
@@ -43,4 +52,20 @@ public class Message {
     public void setAuthor(User author) {
         this.author = author;
     }
+
+    public Set<Post> getPosts() {
+        return posts;
+    }
+
+    public void setPosts(Set<Post> posts) {
+        this.posts = posts;
+    }
+
+    public Set<Comment> getComments() {
+        return comments;
+    }
+
+    public void setComments(Set<Comment> comments) {
+        this.comments = comments;
+    }
 }
@@ -1,9 +1,15 @@
 package com.jpozarycki.utils.entity;
 
+import com.jpozarycki.interceptor.EntityCacheable;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "users")
+@Cache(region = "user", usage = CacheConcurrencyStrategy.READ_WRITE)
+@EntityCacheable
 public class User {
 
     @Id
@@ -0,0 +1,126 @@
+package com.jpozarycki.utils.persistence;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor of the blocking JDBC work, sized to the connection pool so that the sessions never wait for a
+ * connection
+ * <p>
+ * At most poolSize tasks run at once and at most queueSize tasks wait for them, further tasks are rejected with a
+ * {@link RejectedExecutionException} instead of piling up
+ */
+public class DatabaseExecutor implements Executor, AutoCloseable {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ExecutorService executorService;
+    private final Semaphore queuePermits;
+    private final Semaphore runPermits;
+
+    private DatabaseExecutor(ExecutorService executorService, Semaphore queuePermits, Semaphore runPermits) {
+        this.executorService = executorService;
+        this.queuePermits = queuePermits;
+        this.runPermits = runPermits;
+    }
+
+    /**
+     * Run the tasks on a fixed pool of platform threads
+     *
+     * @param poolSize  Number of threads, i.e. of connections used at once
+     * @param queueSize Number of tasks waiting for a thread before rejecting
+     */
+    public static DatabaseExecutor platformThreads(int poolSize, int queueSize) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueSize, 1)),
+                new DatabaseThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        return new DatabaseExecutor(threadPoolExecutor, null, null);
+    }
+
+    /**
+     * Run each task on a new virtual thread, limiting the tasks running and waiting with semaphores
+     * <p>
+     * Virtual threads are available from JDK 21, on older JDKs an {@link IllegalStateException} is thrown
+     *
+     * @param poolSize  Number of tasks running at once, i.e. of connections used at once
+     * @param queueSize Number of tasks waiting to run before rejecting
+     */
+    public static DatabaseExecutor virtualThreads(int poolSize, int queueSize) {
+        ExecutorService virtualThreadExecutor;
+        try {
+            virtualThreadExecutor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available on this JDK", e);
+        }
+        return new DatabaseExecutor(
+                virtualThreadExecutor, new Semaphore(poolSize + queueSize), new Semaphore(poolSize)
+        );
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (queuePermits == null) {
+            executorService.execute(command);
+            return;
+        }
+
+        if (!queuePermits.tryAcquire()) {
+            throw new RejectedExecutionException("Database executor is saturated");
+        }
+        try {
+            executorService.execute(() -> runWithPermit(command));
+        } catch (RejectedExecutionException e) {
+            queuePermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Shut the executor down, letting the submitted tasks complete
+     */
+    @Override
+    public void close() {
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWithPermit(Runnable command) {
+        try {
+            runPermits.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                runPermits.release();
+            }
+        } finally {
+            queuePermits.release();
+        }
+    }
+
+    private static class DatabaseThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "database-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
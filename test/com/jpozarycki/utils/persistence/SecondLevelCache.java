@@ -0,0 +1,40 @@
+package com.jpozarycki.utils.persistence;
+
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * Second-level and query cache of the session factories, backed by Caffeine through JCache
+ * <p>
+ * Each entity annotated with {@link org.hibernate.annotations.Cache} is cached in the region named in the annotation,
+ * configured with the caches of the caffeine.jcache section of the application configuration, e.g. its maximum size
+ * and expiry. The region names are configuration paths, they are therefore to contain no dot. The regions missing
+ * from the configuration are created with the caffeine.jcache.default settings
+ * <p>
+ * Hibernate enables the second-level cache by default once a region factory is on the classpath, the session factories
+ * not enabling it are therefore to disable it explicitly
+ */
+public final class SecondLevelCache {
+    private static final String JCACHE_PROVIDER = "hibernate.javax.cache.provider";
+    private static final String JCACHE_MISSING_CACHE_STRATEGY = "hibernate.javax.cache.missing_cache_strategy";
+
+    private SecondLevelCache() {
+    }
+
+    /**
+     * Enable the second-level cache, and the query cache if requested, on a session factory configuration
+     *
+     * @param configuration Configuration of the session factory
+     * @param queryCache    Whether the query cache is enabled as well
+     * @return Configuration of the session factory
+     */
+    public static Configuration enable(Configuration configuration, boolean queryCache) {
+        return configuration
+                .setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "true")
+                .setProperty(AvailableSettings.USE_QUERY_CACHE, String.valueOf(queryCache))
+                .setProperty(AvailableSettings.CACHE_REGION_FACTORY, "jcache")
+                .setProperty(JCACHE_PROVIDER, CaffeineCachingProvider.class.getName())
+                .setProperty(JCACHE_MISSING_CACHE_STRATEGY, "create");
+    }
+}
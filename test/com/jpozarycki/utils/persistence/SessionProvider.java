@@ -1,48 +1,375 @@
 package com.jpozarycki.utils.persistence;
 
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.QueryMetrics;
+import com.jpozarycki.interceptor.RowCountingConnectionProvider;
+import com.jpozarycki.interceptor.SqlTrace;
+import com.jpozarycki.statistics.HibernateStatisticsService;
+import com.typesafe.config.Config;
 import lombok.Value;
-import org.hibernate.HibernateException;
+import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+import play.inject.ApplicationLifecycle;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+/**
+ * Provide the sessions of a single session factory, built lazily on the first session and closed with the
+ * application
+ * <p>
+ * Each session is a unit of work: its transaction is committed when the function returns, rolled back when it
+ * throws, and retried in a new session on a serialization failure or a deadlock
+ * <p>
+ * The asynchronous sessions run on a {@link DatabaseExecutor} sized to the connection pool, configured in the
+ * hibernate.session-provider section
+ * <p>
+ * Given a {@link HibernateQueryInterceptor}, each session gets its own interceptor recording into the query metrics
+ * started by the thread calling the provider, even when the session runs on the database executor
+ * <p>
+ * Given a {@link HibernateStatisticsService}, the session factory is registered to it once built
+ */
 @Singleton
 public class SessionProvider {
+    private static final String SESSION_PROVIDER_CONFIG_PATH = "hibernate.session-provider";
+    private static final int DEFAULT_POOL_SIZE = 10;
+    private static final int DEFAULT_QUEUE_SIZE = 100;
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long RETRY_BACKOFF_MILLIS = 10;
+    private static final String HIKARI_MAXIMUM_POOL_SIZE = "hibernate.hikari.maximumPoolSize";
+    private static final String SERIALIZATION_FAILURE_SQL_STATE = "40001";
+    private static final String DEADLOCK_DETECTED_SQL_STATE = "40P01";
+
+    private final Supplier<SessionFactory> sessionFactorySupplier;
+    private final DatabaseExecutor databaseExecutor;
+    private final int maxRetries;
+    private final HibernateQueryInterceptor hibernateQueryInterceptor;
+    private final HibernateStatisticsService hibernateStatisticsService;
+    private volatile SessionFactory sessionFactory;
+    private boolean closed;
+
+    @Inject
+    public SessionProvider(ApplicationLifecycle applicationLifecycle, Config config,
+                           HibernateQueryInterceptor hibernateQueryInterceptor,
+                           HibernateStatisticsService hibernateStatisticsService) {
+        this(config.getConfig(SESSION_PROVIDER_CONFIG_PATH), hibernateQueryInterceptor, hibernateStatisticsService);
+        applicationLifecycle.addStopHook(() -> {
+            close();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private SessionProvider(Config sessionProviderConfig, HibernateQueryInterceptor hibernateQueryInterceptor,
+                            HibernateStatisticsService hibernateStatisticsService) {
+        this(
+                () -> buildSessionFactory(sessionProviderConfig),
+                sessionProviderConfig.getBoolean("virtual-threads")
+                        ? DatabaseExecutor.virtualThreads(
+                                sessionProviderConfig.getInt("pool-size"), sessionProviderConfig.getInt("queue-size"))
+                        : DatabaseExecutor.platformThreads(
+                                sessionProviderConfig.getInt("pool-size"), sessionProviderConfig.getInt("queue-size")),
+                sessionProviderConfig.getInt("max-retries"),
+                hibernateQueryInterceptor,
+                hibernateStatisticsService
+        );
+    }
+
+    /**
+     * @param sessionFactorySupplier Supplier called once to build the session factory
+     */
+    public SessionProvider(Supplier<SessionFactory> sessionFactorySupplier) {
+        this(sessionFactorySupplier, DatabaseExecutor.platformThreads(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_SIZE));
+    }
+
+    /**
+     * @param sessionFactorySupplier Supplier called once to build the session factory
+     * @param databaseExecutor       Executor of the asynchronous sessions, closed with the provider
+     */
+    public SessionProvider(Supplier<SessionFactory> sessionFactorySupplier, DatabaseExecutor databaseExecutor) {
+        this(sessionFactorySupplier, databaseExecutor, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @param sessionFactorySupplier Supplier called once to build the session factory
+     * @param databaseExecutor       Executor of the asynchronous sessions, closed with the provider
+     * @param maxRetries             Number of retries of a unit of work failing on a serialization failure or a
+     *                               deadlock
+     */
+    public SessionProvider(Supplier<SessionFactory> sessionFactorySupplier, DatabaseExecutor databaseExecutor,
+                           int maxRetries) {
+        this(sessionFactorySupplier, databaseExecutor, maxRetries, null);
+    }
+
+    /**
+     * @param sessionFactorySupplier    Supplier called once to build the session factory
+     * @param databaseExecutor          Executor of the asynchronous sessions, closed with the provider
+     * @param maxRetries                Number of retries of a unit of work failing on a serialization failure or a
+     *                                  deadlock
+     * @param hibernateQueryInterceptor Interceptor creating the interceptor of each session, null to open the sessions
+     *                                  with the interceptor of the session factory
+     */
+    public SessionProvider(Supplier<SessionFactory> sessionFactorySupplier, DatabaseExecutor databaseExecutor,
+                           int maxRetries, HibernateQueryInterceptor hibernateQueryInterceptor) {
+        this(sessionFactorySupplier, databaseExecutor, maxRetries, hibernateQueryInterceptor, null);
+    }
+
+    /**
+     * @param sessionFactorySupplier     Supplier called once to build the session factory
+     * @param databaseExecutor           Executor of the asynchronous sessions, closed with the provider
+     * @param maxRetries                 Number of retries of a unit of work failing on a serialization failure or a
+     *                                   deadlock
+     * @param hibernateQueryInterceptor  Interceptor creating the interceptor of each session, null to open the
+     *                                   sessions with the interceptor of the session factory
+     * @param hibernateStatisticsService Service to which the session factory is registered once built, null to
+     *                                   register it to none
+     */
+    public SessionProvider(Supplier<SessionFactory> sessionFactorySupplier, DatabaseExecutor databaseExecutor,
+                           int maxRetries, HibernateQueryInterceptor hibernateQueryInterceptor,
+                           HibernateStatisticsService hibernateStatisticsService) {
+        this.sessionFactorySupplier = sessionFactorySupplier;
+        this.databaseExecutor = databaseExecutor;
+        this.maxRetries = maxRetries;
+        this.hibernateQueryInterceptor = hibernateQueryInterceptor;
+        this.hibernateStatisticsService = hibernateStatisticsService;
+    }
 
     public <T> T withSession(Function<Session, T> function) {
-        return withSessionAndTransaction(function);
+        return withSessionAndTransaction(function, false, currentQueryMetrics(), currentSqlTrace());
+    }
+
+    /**
+     * Run the function in a read-only session: the loaded entities are read-only and the session is never flushed,
+     * so neither the snapshots of the entities nor their dirty checking are paid for
+     *
+     * @param function Function to apply in the session
+     * @return Result of the function
+     */
+    public <T> T withReadOnlySession(Function<Session, T> function) {
+        return withSessionAndTransaction(function, true, currentQueryMetrics(), currentSqlTrace());
+    }
+
+    /**
+     * Run the function in a session on the database executor, keeping the calling thread free
+     * <p>
+     * The session records its statements in the query metrics and the SQL trace started by the calling thread, if any
+     *
+     * @param function Function to apply in the session
+     * @return Stage of the function result, failed with a {@link RejectedExecutionException} when the database
+     * executor is saturated
+     */
+    public <T> CompletionStage<T> withSessionAsync(Function<Session, T> function) {
+        QueryMetrics queryMetrics = currentQueryMetrics();
+        SqlTrace sqlTrace = currentSqlTrace();
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> withSessionAndTransaction(function, false, queryMetrics, sqlTrace), databaseExecutor
+            );
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * Run the function in a read-only session on the database executor, keeping the calling thread free
+     * <p>
+     * The session records its statements in the query metrics and the SQL trace started by the calling thread, if any
+     *
+     * @param function Function to apply in the session
+     * @return Stage of the function result, failed with a {@link RejectedExecutionException} when the database
+     * executor is saturated
+     * @see #withReadOnlySession(Function)
+     */
+    public <T> CompletionStage<T> withReadOnlySessionAsync(Function<Session, T> function) {
+        QueryMetrics queryMetrics = currentQueryMetrics();
+        SqlTrace sqlTrace = currentSqlTrace();
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> withSessionAndTransaction(function, true, queryMetrics, sqlTrace), databaseExecutor
+            );
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * Open a stream in a read-only session that stays open until the stream is closed, the stream must then be
+     * closed, e.g. with a try-with-resources statement
+     *
+     * @param function Function opening the stream in the session
+     * @return Stream closing the session on close
+     * @see #withReadOnlySession(Function)
+     */
+    public <T> Stream<T> withReadOnlySessionStream(Function<Session, Stream<T>> function) {
+        SessionData sessionData = getSessionData(true, currentQueryMetrics(), currentSqlTrace());
+        try {
+            return function.apply(sessionData.getSession()).onClose(() -> {
+                try {
+                    sessionData.getTransaction().commit();
+                } finally {
+                    endSession(sessionData.getSession());
+                }
+            });
+        } catch (RuntimeException e) {
+            rollback(sessionData.getTransaction(), e);
+            endSession(sessionData.getSession());
+            throw e;
+        }
     }
 
     public void withSession(Consumer<Session> consumer) {
         withSessionAndTransaction(session -> {
             consumer.accept(session);
             return null;
-        });
+        }, false, currentQueryMetrics(), currentSqlTrace());
     }
 
-    private <T> T withSessionAndTransaction(Function<Session, T> function) {
-        SessionData sessionData = getSessionData();
+    /**
+     * Run the function in a unit of work, retrying it in a new session when it fails on a serialization failure or a
+     * deadlock
+     *
+     * @param function     Function to apply in the session
+     * @param readOnly     Whether the session is read-only
+     * @param queryMetrics Query metrics in which the session records its statements, null to record none
+     * @param sqlTrace     SQL trace in which the session records its statements, null to trace none
+     * @return Result of the function
+     */
+    private <T> T withSessionAndTransaction(Function<Session, T> function, boolean readOnly,
+                                            QueryMetrics queryMetrics, SqlTrace sqlTrace) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return inUnitOfWork(function, readOnly, queryMetrics, sqlTrace);
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+    }
+
+    private <T> T inUnitOfWork(Function<Session, T> function, boolean readOnly, QueryMetrics queryMetrics,
+                               SqlTrace sqlTrace) {
+        SessionData sessionData = getSessionData(readOnly, queryMetrics, sqlTrace);
         try {
-            return function.apply(sessionData.getSession());
-        } catch (HibernateException e) {
-            e.printStackTrace();
+            T result = function.apply(sessionData.getSession());
+            sessionData.getTransaction().commit();
+            return result;
+        } catch (RuntimeException e) {
+            rollback(sessionData.getTransaction(), e);
+            throw e;
         } finally {
             endSession(sessionData.getSession());
         }
-        return null;
     }
 
-    private SessionData getSessionData() {
-        SessionFactory sessionFactory = new Configuration().configure().buildSessionFactory();
+    /**
+     * Get the session factory, building it on the first call
+     *
+     * @return Session factory shared by all the sessions
+     */
+    public SessionFactory getSessionFactory() {
+        SessionFactory result = sessionFactory;
+        if (result == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("SessionProvider is closed");
+                }
+                result = sessionFactory;
+                if (result == null) {
+                    result = sessionFactorySupplier.get();
+                    if (hibernateStatisticsService != null) {
+                        hibernateStatisticsService.register(result);
+                    }
+                    sessionFactory = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Close the database executor, letting the running sessions complete, then the session factory along with its
+     * connection pool, if it was built
+     */
+    public synchronized void close() {
+        closed = true;
+        databaseExecutor.close();
+        if (sessionFactory != null) {
+            if (hibernateStatisticsService != null) {
+                hibernateStatisticsService.unregister(sessionFactory);
+            }
+            sessionFactory.close();
+            sessionFactory = null;
+        }
+    }
+
+    /**
+     * Build the session factory from hibernate.cfg.xml, with a HikariCP connection pool unless another connection
+     * provider is configured, with the second-level cache if enabled, and with the rows of the statements counted if
+     * enabled
+     *
+     * @param sessionProviderConfig Configuration of the provider, pool-size being the maximum size of the connection
+     *                              pool unless configured
+     */
+    private static SessionFactory buildSessionFactory(Config sessionProviderConfig) {
+        int poolSize = sessionProviderConfig.getInt("pool-size");
+        Configuration configuration = new Configuration().configure();
+        if (sessionProviderConfig.getBoolean("second-level-cache.enabled")) {
+            SecondLevelCache.enable(configuration, sessionProviderConfig.getBoolean("second-level-cache.query-cache"));
+        } else if (configuration.getProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE) == null) {
+            configuration.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false");
+        }
+        if (configuration.getProperty(AvailableSettings.CONNECTION_PROVIDER) == null) {
+            configuration.setProperty(
+                    AvailableSettings.CONNECTION_PROVIDER, HikariCPConnectionProvider.class.getName()
+            );
+        }
+        if (sessionProviderConfig.getBoolean("row-counting")) {
+            configuration.setProperty(
+                    RowCountingConnectionProvider.DELEGATE_CONNECTION_PROVIDER,
+                    configuration.getProperty(AvailableSettings.CONNECTION_PROVIDER)
+            );
+            configuration.setProperty(
+                    AvailableSettings.CONNECTION_PROVIDER, RowCountingConnectionProvider.class.getName()
+            );
+        }
+        if (configuration.getProperty(HIKARI_MAXIMUM_POOL_SIZE) == null) {
+            configuration.setProperty(HIKARI_MAXIMUM_POOL_SIZE, String.valueOf(poolSize));
+        }
+        return configuration.buildSessionFactory();
+    }
+
+    private SessionData getSessionData(boolean readOnly, QueryMetrics queryMetrics, SqlTrace sqlTrace) {
+        SessionFactory sessionFactory = getSessionFactory();
         Session session = null;
         Transaction tx;
         try {
-            session = sessionFactory.openSession();
+            session = hibernateQueryInterceptor == null
+                    ? sessionFactory.openSession()
+                    : hibernateQueryInterceptor.openSession(sessionFactory, queryMetrics, sqlTrace);
+            if (readOnly) {
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+            }
             if (session.getTransaction().isActive()) {
                 tx = session.getTransaction();
             } else {
@@ -57,10 +384,63 @@ public class SessionProvider {
         return new SessionData(session, tx);
     }
 
+    /**
+     * Get the query metrics started by the thread calling the provider, to be recorded by the sessions it opens
+     */
+    private QueryMetrics currentQueryMetrics() {
+        return hibernateQueryInterceptor == null ? null : hibernateQueryInterceptor.getQueryMetrics();
+    }
+
+    /**
+     * Get the SQL trace started by the thread calling the provider, to be recorded by the sessions it opens
+     */
+    private SqlTrace currentSqlTrace() {
+        return hibernateQueryInterceptor == null ? null : hibernateQueryInterceptor.getSqlTrace();
+    }
+
     private void endSession(Session session) {
         session.close();
     }
 
+    private static void rollback(Transaction transaction, RuntimeException cause) {
+        if (!transaction.isActive()) {
+            return;
+        }
+        try {
+            transaction.rollback();
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Tell whether the failure is a serialization failure or a deadlock, after which the unit of work can succeed
+     * when run again
+     */
+    private static boolean isRetryable(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LockAcquisitionException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (SERIALIZATION_FAILURE_SQL_STATE.equals(sqlState) || DEADLOCK_DETECTED_SQL_STATE.equals(sqlState)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(RETRY_BACKOFF_MILLIS << attempt) + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted before retrying the unit of work", e);
+        }
+    }
+
     @Value
     private static class SessionData {
         Session session;
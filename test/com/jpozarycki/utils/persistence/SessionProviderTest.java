@@ -0,0 +1,253 @@
+package com.jpozarycki.utils.persistence;
+
+import com.jpozarycki.interceptor.HibernateQueryInterceptor;
+import com.jpozarycki.interceptor.HibernateQueryInterceptorProperties;
+import com.jpozarycki.interceptor.SqlTrace;
+import com.jpozarycki.interceptor.TracedRequest;
+import com.jpozarycki.utils.entity.Message;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.exception.LockAcquisitionException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.inject.ApplicationLifecycle;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class SessionProviderTest {
+
+    @Test
+    public void sessionProvider_isBuildingSessionFactoryOnce() {
+        AtomicInteger builds = new AtomicInteger();
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        SessionProvider sessionProvider = new SessionProvider(() -> {
+            builds.incrementAndGet();
+            return sessionFactory;
+        });
+
+        assertThat(builds.get(), is(0));
+        assertThat(sessionProvider.getSessionFactory(), sameInstance(sessionFactory));
+        assertThat(sessionProvider.getSessionFactory(), sameInstance(sessionFactory));
+        assertThat(builds.get(), is(1));
+    }
+
+    @Test
+    public void sessionProvider_isSharingSessionFactoryBetweenSessions() {
+        SessionProvider sessionProvider = new SessionProvider(() -> TestSessionFactory.build("session-provider"));
+        try {
+            SessionFactory first = sessionProvider.withSession(session -> {
+                return session.getSessionFactory();
+            });
+            SessionFactory second = sessionProvider.withSession(session -> {
+                return session.getSessionFactory();
+            });
+
+            assertThat(first, sameInstance(second));
+        } finally {
+            sessionProvider.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sessionProvider_isClosingSessionFactoryOnApplicationStop() throws Exception {
+        ApplicationLifecycle applicationLifecycle = mock(ApplicationLifecycle.class);
+        ArgumentCaptor<Callable<? extends CompletionStage<?>>> stopHook = ArgumentCaptor.forClass(Callable.class);
+        SessionProvider sessionProvider = new SessionProvider(
+                applicationLifecycle,
+                ConfigFactory.parseString(
+                        "hibernate.session-provider { pool-size = 1, queue-size = 1, virtual-threads = false, "
+                                + "max-retries = 0 }"
+                ),
+                new HibernateQueryInterceptor(new HibernateQueryInterceptorProperties()),
+                null
+        );
+        verify(applicationLifecycle).addStopHook(stopHook.capture());
+
+        stopHook.getValue().call().toCompletableFuture().join();
+
+        try {
+            sessionProvider.getSessionFactory();
+            assert false;
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("SessionProvider is closed"));
+        }
+    }
+
+    @Test
+    public void sessionProvider_isRejectingSessionsWhenDatabaseExecutorIsSaturated() {
+        SessionProvider sessionProvider = new SessionProvider(
+                () -> TestSessionFactory.build("session-provider-saturated"),
+                DatabaseExecutor.platformThreads(1, 1)
+        );
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletionStage<Boolean> running = sessionProvider.withSessionAsync(session -> awaitRelease(release));
+            CompletionStage<Boolean> queued = sessionProvider.withSessionAsync(session -> awaitRelease(release));
+            CompletionStage<Boolean> rejected = sessionProvider.withSessionAsync(session -> awaitRelease(release));
+
+            try {
+                rejected.toCompletableFuture().join();
+                assert false;
+            } catch (CompletionException e) {
+                assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+            }
+
+            release.countDown();
+            assertThat(running.toCompletableFuture().join(), is(true));
+            assertThat(queued.toCompletableFuture().join(), is(true));
+        } finally {
+            release.countDown();
+            sessionProvider.close();
+        }
+    }
+
+    @Test
+    public void sessionProvider_isCommittingUnitOfWork() {
+        SessionProvider sessionProvider =
+                new SessionProvider(() -> TestSessionFactory.build("session-provider-commit"));
+        try {
+            sessionProvider.withSession(session -> {
+                session.persist(newMessage("committed"));
+            });
+
+            assertThat(countMessages(sessionProvider), is(1L));
+        } finally {
+            sessionProvider.close();
+        }
+    }
+
+    @Test
+    public void sessionProvider_isRollingBackFailedUnitOfWork() {
+        SessionProvider sessionProvider =
+                new SessionProvider(() -> TestSessionFactory.build("session-provider-rollback"));
+        try {
+            try {
+                sessionProvider.withSession((Consumer<Session>) session -> {
+                    session.persist(newMessage("rolled back"));
+                    throw new IllegalArgumentException("failure");
+                });
+                assert false;
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), is("failure"));
+            }
+
+            assertThat(countMessages(sessionProvider), is(0L));
+        } finally {
+            sessionProvider.close();
+        }
+    }
+
+    @Test
+    public void sessionProvider_isNotFlushingReadOnlySession() {
+        SessionProvider sessionProvider =
+                new SessionProvider(() -> TestSessionFactory.build("session-provider-read-only"));
+        try {
+            Long id = sessionProvider.withSession(session -> {
+                Message message = newMessage("original");
+                session.persist(message);
+                return message.getId();
+            });
+
+            sessionProvider.withReadOnlySession(session -> {
+                Message message = session.get(Message.class, id);
+                message.setText("modified");
+                return message;
+            });
+
+            String text = sessionProvider.withSession(session -> {
+                return session.get(Message.class, id).getText();
+            });
+            assertThat(text, is("original"));
+        } finally {
+            sessionProvider.close();
+        }
+    }
+
+    @Test
+    public void sessionProvider_isRetryingUnitOfWorkOnDeadlock() {
+        SessionProvider sessionProvider =
+                new SessionProvider(() -> TestSessionFactory.build("session-provider-retry"));
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            Integer result = sessionProvider.withSession(session -> {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new LockAcquisitionException("deadlock", new SQLException("deadlock", "40P01"));
+                }
+                return attempts.get();
+            });
+
+            assertThat(result, is(2));
+        } finally {
+            sessionProvider.close();
+        }
+    }
+
+    @Test
+    public void sessionProvider_isTracingStatementsOfAsyncSessionsInTraceOfCallingThread() {
+        HibernateQueryInterceptorProperties properties = new HibernateQueryInterceptorProperties();
+        properties.setErrorLevel("INFO");
+        properties.setSqlTraceEnabled(true);
+        HibernateQueryInterceptor hibernateQueryInterceptor = new HibernateQueryInterceptor(properties);
+        SessionProvider sessionProvider = new SessionProvider(
+                () -> TestSessionFactory.build("session-provider-sql-trace"),
+                DatabaseExecutor.platformThreads(1, 1),
+                0,
+                hibernateQueryInterceptor
+        );
+        try {
+            SqlTrace sqlTrace = hibernateQueryInterceptor.startSqlTrace("GET", "/messages");
+            try {
+                sessionProvider.withReadOnlySessionAsync(session -> {
+                    return session.createQuery("from Message", Message.class).list();
+                }).toCompletableFuture().join();
+            } finally {
+                hibernateQueryInterceptor.stopSqlTrace();
+            }
+            hibernateQueryInterceptor.getSqlTraceRecorder().completed(sqlTrace);
+
+            List<TracedRequest> tracedRequests = hibernateQueryInterceptor.getSqlTraceRecorder().slowest(10);
+            assertThat(tracedRequests.size(), is(1));
+            assertThat(tracedRequests.get(0).getStatementCount(), is(1));
+        } finally {
+            sessionProvider.close();
+        }
+    }
+
+    private static boolean awaitRelease(CountDownLatch release) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private static Message newMessage(String text) {
+        Message message = new Message();
+        message.setText(text);
+        return message;
+    }
+
+    private static long countMessages(SessionProvider sessionProvider) {
+        return sessionProvider.withReadOnlySession(session -> {
+            return session.createQuery("select count(m) from Message m", Long.class).getSingleResult();
+        });
+    }
+}
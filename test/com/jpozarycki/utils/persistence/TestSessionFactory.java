@@ -0,0 +1,118 @@
+package com.jpozarycki.utils.persistence;
+
+import com.jpozarycki.interceptor.RowCountingConnectionProvider;
+import com.jpozarycki.utils.entity.Comment;
+import com.jpozarycki.utils.entity.Message;
+import com.jpozarycki.utils.entity.Post;
+import com.jpozarycki.utils.entity.User;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Interceptor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+
+/**
+ * Session factory of the test model on an in-memory H2 database
+ */
+public final class TestSessionFactory {
+
+    private TestSessionFactory() {
+    }
+
+    /**
+     * Build a session factory pooling its connections on a new in-memory database with the schema of the test model
+     *
+     * @param databaseName Name of the in-memory database
+     */
+    public static SessionFactory build(String databaseName) {
+        return build(databaseName, EmptyInterceptor.INSTANCE);
+    }
+
+    /**
+     * Build a session factory whose sessions share an interceptor, pooling its connections on a new in-memory
+     * database with the schema of the test model
+     *
+     * @param databaseName Name of the in-memory database
+     * @param interceptor  Interceptor of all the sessions
+     */
+    public static SessionFactory build(String databaseName, Interceptor interceptor) {
+        return configuration(databaseName, interceptor).buildSessionFactory();
+    }
+
+    /**
+     * Build a session factory with the second-level and query cache, pooling its connections on a new in-memory
+     * database with the schema of the test model
+     *
+     * @param databaseName Name of the in-memory database
+     * @param interceptor  Interceptor of all the sessions
+     */
+    public static SessionFactory buildWithSecondLevelCache(String databaseName, Interceptor interceptor) {
+        return SecondLevelCache.enable(configuration(databaseName, interceptor), true).buildSessionFactory();
+    }
+
+    /**
+     * Build a session factory counting the rows read by its statements, pooling its connections on a new in-memory
+     * database with the schema of the test model
+     *
+     * @param databaseName Name of the in-memory database
+     * @param interceptor  Interceptor of all the sessions
+     */
+    public static SessionFactory buildWithRowCounting(String databaseName, Interceptor interceptor) {
+        return configuration(databaseName, interceptor)
+                .setProperty(AvailableSettings.CONNECTION_PROVIDER, RowCountingConnectionProvider.class.getName())
+                .setProperty(
+                        RowCountingConnectionProvider.DELEGATE_CONNECTION_PROVIDER,
+                        HikariCPConnectionProvider.class.getName()
+                )
+                .buildSessionFactory();
+    }
+
+    private static Configuration configuration(String databaseName, Interceptor interceptor) {
+        return new Configuration()
+                .setProperty(AvailableSettings.DRIVER, "org.h2.Driver")
+                .setProperty(AvailableSettings.URL, "jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.USER, "sa")
+                .setProperty(AvailableSettings.PASS, "")
+                .setProperty(AvailableSettings.CONNECTION_PROVIDER, HikariCPConnectionProvider.class.getName())
+                .setProperty(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .setProperty(AvailableSettings.ORDER_INSERTS, "true")
+                .setProperty(AvailableSettings.ORDER_UPDATES, "true")
+                .setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false")
+                .setInterceptor(interceptor)
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(Message.class)
+                .addAnnotatedClass(Post.class)
+                .addAnnotatedClass(Comment.class);
+    }
+
+    /**
+     * Insert messages written by distinct authors, each message having a post
+     *
+     * @param sessionFactory Session factory of the test model
+     * @param messageCount   Number of messages to insert
+     */
+    public static void insertMessages(SessionFactory sessionFactory, int messageCount) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            for (int i = 0; i < messageCount; i++) {
+                User author = new User();
+                author.setName("author" + i);
+                session.persist(author);
+
+                Message message = new Message();
+                message.setText("text" + i);
+                message.setAuthor(author);
+                session.persist(message);
+
+                Post post = new Post();
+                post.setMessage(message);
+                session.persist(post);
+            }
+            transaction.commit();
+        }
+    }
+}